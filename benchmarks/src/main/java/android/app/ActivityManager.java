@@ -0,0 +1,16 @@
+package android.app;
+
+public class ActivityManager
+{
+	private final int	memoryClass;
+
+	public ActivityManager(int memoryClass)
+	{
+		this.memoryClass = memoryClass;
+	}
+
+	public int getMemoryClass()
+	{
+		return memoryClass;
+	}
+}
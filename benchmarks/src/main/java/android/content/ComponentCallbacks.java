@@ -0,0 +1,10 @@
+package android.content;
+
+import android.content.res.Configuration;
+
+public interface ComponentCallbacks
+{
+	public void onConfigurationChanged(Configuration newConfig);
+
+	public void onLowMemory();
+}
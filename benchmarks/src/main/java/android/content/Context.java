@@ -0,0 +1,45 @@
+package android.content;
+
+import java.io.File;
+
+import android.content.res.Resources;
+
+public abstract class Context
+{
+	public static final String	ACTIVITY_SERVICE		= "activity";
+	public static final String	CONNECTIVITY_SERVICE	= "connectivity";
+
+	public Context getApplicationContext()
+	{
+		return this;
+	}
+
+	public abstract Object getSystemService(String name);
+
+	public abstract Resources getResources();
+
+	public abstract File getCacheDir();
+
+	public File getExternalCacheDir()
+	{
+		return null;
+	}
+
+	public int checkCallingOrSelfPermission(String permission)
+	{
+		return android.content.pm.PackageManager.PERMISSION_DENIED;
+	}
+
+	public void sendBroadcast(Intent intent)
+	{
+	}
+
+	public void registerComponentCallbacks(ComponentCallbacks callback)
+	{
+	}
+
+	public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter)
+	{
+		return null;
+	}
+}
@@ -0,0 +1,17 @@
+package android.content;
+
+import android.net.Uri;
+
+public class Intent
+{
+	public static final String	ACTION_MEDIA_SCANNER_SCAN_FILE	= "android.intent.action.MEDIA_SCANNER_SCAN_FILE";
+
+	public Intent(String action)
+	{
+	}
+
+	public Intent setData(Uri data)
+	{
+		return this;
+	}
+}
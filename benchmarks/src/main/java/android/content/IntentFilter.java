@@ -0,0 +1,8 @@
+package android.content;
+
+public class IntentFilter
+{
+	public IntentFilter(String action)
+	{
+	}
+}
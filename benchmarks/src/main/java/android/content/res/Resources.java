@@ -0,0 +1,21 @@
+package android.content.res;
+
+import java.io.InputStream;
+
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+public class Resources
+{
+	private final DisplayMetrics	displayMetrics	= new DisplayMetrics();
+
+	public InputStream openRawResource(int id, TypedValue value)
+	{
+		throw new UnsupportedOperationException("Resources are not available in benchmarks");
+	}
+
+	public DisplayMetrics getDisplayMetrics()
+	{
+		return displayMetrics;
+	}
+}
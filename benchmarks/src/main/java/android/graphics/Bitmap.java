@@ -0,0 +1,125 @@
+package android.graphics;
+
+import java.io.OutputStream;
+
+/**
+ * Keeps size and config only. There are no pixels, so memory cache and pool see real sizes without allocating them.
+ */
+public final class Bitmap
+{
+	public enum CompressFormat
+	{
+		JPEG, PNG, WEBP
+	}
+
+	public enum Config
+	{
+		ALPHA_8(1), RGB_565(2), ARGB_4444(2), ARGB_8888(4);
+
+		final int	bytesPerPixel;
+
+		Config(int bytesPerPixel)
+		{
+			this.bytesPerPixel = bytesPerPixel;
+		}
+	}
+
+	private final int		width;
+	private final int		height;
+	private final Config	config;
+	private final boolean	mutable;
+	private boolean			recycled	= false;
+	private boolean			hasAlpha;
+	private int				density		= 160;
+
+	private Bitmap(int width, int height, Config config, boolean mutable)
+	{
+		this.width = width;
+		this.height = height;
+		this.config = config;
+		this.mutable = mutable;
+		this.hasAlpha = config != Config.RGB_565;
+	}
+
+	public static Bitmap createBitmap(int width, int height, Config config)
+	{
+		return new Bitmap(width, height, config, true);
+	}
+
+	public boolean compress(CompressFormat format, int quality, OutputStream stream)
+	{
+		return true;
+	}
+
+	public int getByteCount()
+	{
+		return getRowBytes() * height;
+	}
+
+	public int getRowBytes()
+	{
+		return width * config.bytesPerPixel;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public Config getConfig()
+	{
+		return config;
+	}
+
+	public boolean isMutable()
+	{
+		return mutable;
+	}
+
+	public void recycle()
+	{
+		recycled = true;
+	}
+
+	public boolean isRecycled()
+	{
+		return recycled;
+	}
+
+	public void eraseColor(int color)
+	{
+	}
+
+	public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height)
+	{
+	}
+
+	public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height)
+	{
+	}
+
+	public boolean hasAlpha()
+	{
+		return hasAlpha;
+	}
+
+	public void setHasAlpha(boolean hasAlpha)
+	{
+		this.hasAlpha = hasAlpha;
+	}
+
+	public int getDensity()
+	{
+		return density;
+	}
+
+	public void setDensity(int density)
+	{
+		this.density = density;
+	}
+}
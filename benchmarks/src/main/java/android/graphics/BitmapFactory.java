@@ -0,0 +1,57 @@
+package android.graphics;
+
+import java.io.FileDescriptor;
+import java.io.InputStream;
+
+import android.content.res.Resources;
+import android.util.TypedValue;
+
+/**
+ * Decoding is not benchmarked, so all decode methods return {@code null}.
+ */
+public class BitmapFactory
+{
+	public static class Options
+	{
+		public Bitmap			inBitmap;
+		public boolean			inMutable;
+		public boolean			inJustDecodeBounds;
+		public int				inSampleSize;
+		public Bitmap.Config	inPreferredConfig	= Bitmap.Config.ARGB_8888;
+		public boolean			inPurgeable;
+		public boolean			inInputShareable;
+		public boolean			inScaled			= true;
+		public int				inDensity;
+		public int				inTargetDensity;
+		public int				outWidth;
+		public int				outHeight;
+		public String			outMimeType;
+		public byte[]			inTempStorage;
+		public boolean			mCancel;
+
+		public void requestCancelDecode()
+		{
+			mCancel = true;
+		}
+	}
+
+	public static Bitmap decodeStream(InputStream is, Rect outPadding, Options opts)
+	{
+		return null;
+	}
+
+	public static Bitmap decodeFileDescriptor(FileDescriptor fd, Rect outPadding, Options opts)
+	{
+		return null;
+	}
+
+	public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts)
+	{
+		return null;
+	}
+
+	public static Bitmap decodeResourceStream(Resources res, TypedValue value, InputStream is, Rect pad, Options opts)
+	{
+		return null;
+	}
+}
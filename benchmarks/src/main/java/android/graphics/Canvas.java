@@ -0,0 +1,24 @@
+package android.graphics;
+
+public class Canvas
+{
+	public Canvas()
+	{
+	}
+
+	public Canvas(Bitmap bitmap)
+	{
+	}
+
+	public void setBitmap(Bitmap bitmap)
+	{
+	}
+
+	public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint)
+	{
+	}
+
+	public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint)
+	{
+	}
+}
@@ -0,0 +1,39 @@
+package android.graphics;
+
+/**
+ * Keeps values only, so processors can inspect them.
+ */
+public class ColorMatrix
+{
+	private final float[]	array	= new float[20];
+
+	public ColorMatrix()
+	{
+		reset();
+	}
+
+	public ColorMatrix(ColorMatrix src)
+	{
+		System.arraycopy(src.array, 0, array, 0, 20);
+	}
+
+	public final float[] getArray()
+	{
+		return array;
+	}
+
+	public void reset()
+	{
+		java.util.Arrays.fill(array, 0);
+		array[0] = array[6] = array[12] = array[18] = 1;
+	}
+
+	public void setSaturation(float sat)
+	{
+		reset();
+	}
+
+	public void postConcat(ColorMatrix postmatrix)
+	{
+	}
+}
@@ -0,0 +1,8 @@
+package android.graphics;
+
+public class ColorMatrixColorFilter extends ColorFilter
+{
+	public ColorMatrixColorFilter(ColorMatrix matrix)
+	{
+	}
+}
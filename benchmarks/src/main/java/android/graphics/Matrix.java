@@ -0,0 +1,41 @@
+package android.graphics;
+
+public class Matrix
+{
+	public enum ScaleToFit
+	{
+		FILL, START, CENTER, END
+	}
+
+	public void reset()
+	{
+	}
+
+	public void setScale(float sx, float sy)
+	{
+	}
+
+	public void setTranslate(float dx, float dy)
+	{
+	}
+
+	public boolean postTranslate(float dx, float dy)
+	{
+		return true;
+	}
+
+	public boolean postScale(float sx, float sy)
+	{
+		return true;
+	}
+
+	public boolean isIdentity()
+	{
+		return false;
+	}
+
+	public boolean setRectToRect(RectF src, RectF dst, ScaleToFit stf)
+	{
+		return true;
+	}
+}
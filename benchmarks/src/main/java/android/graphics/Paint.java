@@ -0,0 +1,42 @@
+package android.graphics;
+
+public class Paint
+{
+	public static final int	ANTI_ALIAS_FLAG		= 1;
+	public static final int	FILTER_BITMAP_FLAG	= 2;
+	public static final int	DITHER_FLAG			= 4;
+
+	private Typeface		typeface;
+
+	public Paint()
+	{
+	}
+
+	public Paint(int flags)
+	{
+	}
+
+	public Typeface getTypeface()
+	{
+		return typeface;
+	}
+
+	public Typeface setTypeface(Typeface typeface)
+	{
+		this.typeface = typeface;
+		return typeface;
+	}
+
+	public void setFakeBoldText(boolean fakeBoldText)
+	{
+	}
+
+	public void setTextSkewX(float skewX)
+	{
+	}
+
+	public ColorFilter setColorFilter(ColorFilter filter)
+	{
+		return filter;
+	}
+}
@@ -0,0 +1,12 @@
+package android.graphics;
+
+public class Typeface
+{
+	public static final int	BOLD	= 1;
+	public static final int	ITALIC	= 2;
+
+	public int getStyle()
+	{
+		return 0;
+	}
+}
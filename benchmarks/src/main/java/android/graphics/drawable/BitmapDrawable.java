@@ -0,0 +1,19 @@
+package android.graphics.drawable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+public class BitmapDrawable extends Drawable
+{
+	private final Bitmap	bitmap;
+
+	public BitmapDrawable(Resources res, Bitmap bitmap)
+	{
+		this.bitmap = bitmap;
+	}
+
+	public final Bitmap getBitmap()
+	{
+		return bitmap;
+	}
+}
@@ -0,0 +1,24 @@
+package android.net;
+
+public class ConnectivityManager
+{
+	public static final String	CONNECTIVITY_ACTION	= "android.net.conn.CONNECTIVITY_CHANGE";
+	public static final int		TYPE_MOBILE			= 0;
+	public static final int		TYPE_WIFI			= 1;
+	public static final int		TYPE_ETHERNET		= 9;
+
+	public NetworkInfo getNetworkInfo(int networkType)
+	{
+		return null;
+	}
+
+	public NetworkInfo getActiveNetworkInfo()
+	{
+		return null;
+	}
+
+	public boolean isActiveNetworkMetered()
+	{
+		return false;
+	}
+}
@@ -0,0 +1,19 @@
+package android.net;
+
+public class NetworkInfo
+{
+	public boolean isConnected()
+	{
+		return false;
+	}
+
+	public boolean isConnectedOrConnecting()
+	{
+		return false;
+	}
+
+	public int getType()
+	{
+		return ConnectivityManager.TYPE_WIFI;
+	}
+}
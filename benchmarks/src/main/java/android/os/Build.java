@@ -0,0 +1,23 @@
+package android.os;
+
+public class Build
+{
+	public static class VERSION
+	{
+		public static final int	SDK_INT	= VERSION_CODES.JELLY_BEAN_MR1;
+	}
+
+	public static class VERSION_CODES
+	{
+		public static final int	ECLAIR					= 5;
+		public static final int	FROYO					= 8;
+		public static final int	GINGERBREAD				= 9;
+		public static final int	HONEYCOMB				= 11;
+		public static final int	HONEYCOMB_MR1			= 12;
+		public static final int	HONEYCOMB_MR2			= 13;
+		public static final int	ICE_CREAM_SANDWICH		= 14;
+		public static final int	ICE_CREAM_SANDWICH_MR1	= 15;
+		public static final int	JELLY_BEAN				= 16;
+		public static final int	JELLY_BEAN_MR1			= 17;
+	}
+}
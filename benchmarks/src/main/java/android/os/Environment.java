@@ -0,0 +1,29 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * External storage is never mounted in benchmarks, so everything uses {@link android.content.Context#getCacheDir()}.
+ */
+public class Environment
+{
+	public static final String	MEDIA_MOUNTED			= "mounted";
+	public static final String	MEDIA_MOUNTED_READ_ONLY	= "mounted_ro";
+	public static final String	MEDIA_REMOVED			= "removed";
+	public static final String	DIRECTORY_PICTURES		= "Pictures";
+
+	public static String getExternalStorageState()
+	{
+		return MEDIA_REMOVED;
+	}
+
+	public static File getExternalStorageDirectory()
+	{
+		return null;
+	}
+
+	public static File getExternalStoragePublicDirectory(String type)
+	{
+		return null;
+	}
+}
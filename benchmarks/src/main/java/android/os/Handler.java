@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * There is no message loop in benchmarks, so posted runnables are run right away.
+ */
+public class Handler
+{
+	public Handler()
+	{
+	}
+
+	public Handler(Looper looper)
+	{
+	}
+
+	public final boolean post(Runnable r)
+	{
+		r.run();
+		return true;
+	}
+}
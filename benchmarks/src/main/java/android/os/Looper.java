@@ -0,0 +1,11 @@
+package android.os;
+
+public class Looper
+{
+	private static final Looper	mainLooper	= new Looper();
+
+	public static Looper getMainLooper()
+	{
+		return mainLooper;
+	}
+}
@@ -0,0 +1,7 @@
+package android.text;
+
+import android.graphics.Paint;
+
+public class TextPaint extends Paint
+{
+}
@@ -0,0 +1,18 @@
+package android.text.style;
+
+import android.text.TextPaint;
+
+public class TypefaceSpan
+{
+	public TypefaceSpan(String family)
+	{
+	}
+
+	public void updateDrawState(TextPaint ds)
+	{
+	}
+
+	public void updateMeasureState(TextPaint paint)
+	{
+	}
+}
@@ -0,0 +1,8 @@
+package android.util;
+
+public class DisplayMetrics
+{
+	public static final int	DENSITY_DEFAULT	= 160;
+
+	public int				densityDpi		= DENSITY_DEFAULT;
+}
@@ -0,0 +1,27 @@
+package android.util;
+
+/**
+ * Drops everything. Logging is disabled by {@link com.anddev.BuildConfig#DEBUG} anyway.
+ */
+public final class Log
+{
+	public static int d(String tag, String msg)
+	{
+		return 0;
+	}
+
+	public static int i(String tag, String msg)
+	{
+		return 0;
+	}
+
+	public static int w(String tag, String msg)
+	{
+		return 0;
+	}
+
+	public static int e(String tag, String msg)
+	{
+		return 0;
+	}
+}
@@ -0,0 +1,9 @@
+package android.util;
+
+public class TypedValue
+{
+	public static final int	DENSITY_DEFAULT	= 0;
+	public static final int	DENSITY_NONE	= 0xffff;
+
+	public int				density;
+}
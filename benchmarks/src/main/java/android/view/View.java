@@ -0,0 +1,29 @@
+package android.view;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+public class View
+{
+	private final Context	context;
+
+	public View(Context context)
+	{
+		this.context = context;
+	}
+
+	public Context getContext()
+	{
+		return context;
+	}
+
+	public Resources getResources()
+	{
+		return context.getResources();
+	}
+
+	public boolean isShown()
+	{
+		return true;
+	}
+}
@@ -0,0 +1,27 @@
+package android.widget;
+
+import android.content.Context;
+import android.view.View;
+
+public abstract class AbsListView extends View
+{
+	public interface OnScrollListener
+	{
+		public static final int	SCROLL_STATE_IDLE			= 0;
+		public static final int	SCROLL_STATE_TOUCH_SCROLL	= 1;
+		public static final int	SCROLL_STATE_FLING			= 2;
+
+		public void onScrollStateChanged(AbsListView view, int scrollState);
+
+		public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount);
+	}
+
+	public AbsListView(Context context)
+	{
+		super(context);
+	}
+
+	public void setOnScrollListener(OnScrollListener l)
+	{
+	}
+}
@@ -0,0 +1,9 @@
+package com.anddev;
+
+/**
+ * Release build, so debug logging does not end up in results.
+ */
+public final class BuildConfig
+{
+	public static final boolean	DEBUG	= false;
+}
@@ -0,0 +1,49 @@
+package com.anddev.benchmarks;
+
+import java.io.File;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+
+/**
+ * Context for benchmarks. Cache directory is a temporary directory that is created once per JVM.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class BenchmarkContext extends Context
+{
+	/** Memory class of a typical phone, so memory cache gets a realistic size. */
+	private static final int		MEMORY_CLASS	= 64;
+
+	private static File				cacheDir		= null;
+
+	private final Resources			resources		= new Resources();
+	private final ActivityManager	activityManager	= new ActivityManager(MEMORY_CLASS);
+
+	@Override
+	public Object getSystemService(String name)
+	{
+		if (ACTIVITY_SERVICE.equals(name))
+			return activityManager;
+		return null;
+	}
+
+	@Override
+	public Resources getResources()
+	{
+		return resources;
+	}
+
+	@Override
+	public synchronized File getCacheDir()
+	{
+		if (cacheDir == null)
+		{
+			cacheDir = new File(System.getProperty("java.io.tmpdir"), "anddev-benchmarks-" + System.nanoTime());
+			cacheDir.mkdirs();
+			cacheDir.deleteOnExit();
+		}
+		return cacheDir;
+	}
+}
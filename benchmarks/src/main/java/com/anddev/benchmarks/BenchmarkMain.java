@@ -0,0 +1,23 @@
+package com.anddev.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks with GC profiler, so every result has ops/s and allocation rate. Optional argument is a regular expression that selects
+ * benchmarks, e.g. {@code MemoryCache}.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class BenchmarkMain
+{
+	public static void main(String[] args) throws RunnerException
+	{
+		final Options options = new OptionsBuilder().include(args.length > 0 ? args[0] : BenchmarkMain.class.getPackage().getName() + ".*")
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
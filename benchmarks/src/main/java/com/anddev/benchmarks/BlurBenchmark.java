@@ -0,0 +1,70 @@
+package com.anddev.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anddev.images.processors.BoxBlurImageProcessor;
+
+/**
+ * All passes of {@link BoxBlurImageProcessor} on one thread. Full size image with big radius is compared to image that was downscaled 4 times
+ * with radius downscaled too, like {@link com.anddev.images.processors.BlurImageProcessor} does it.
+ * 
+ * @author Mantas Varnagiris
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlurBenchmark
+{
+	@Param({ "1", "4" })
+	public int						downscale;
+
+	private int						width;
+	private int						height;
+	private int[]					in;
+	private int[]					out;
+	private BoxBlurImageProcessor	processor;
+
+	@Setup
+	public void setUp()
+	{
+		width = 1080 / downscale;
+		height = 1920 / downscale;
+		in = new int[width * height];
+		out = new int[width * height];
+		final Random random = new Random(1);
+		for (int i = 0; i < in.length; i++)
+			in[i] = 0xFF000000 | random.nextInt(0xFFFFFF);
+		processor = new BoxBlurImageProcessor(24 / downscale);
+	}
+
+	@Benchmark
+	public int[] blur()
+	{
+		int[] source = in;
+		int[] target = out;
+		for (int pass = 0; pass < processor.getPassCount(); pass++)
+		{
+			processor.processRows(pass, source, target, width, height, 0, height);
+			final int[] temp = source;
+			source = target;
+			target = temp;
+		}
+		return source;
+	}
+}
@@ -0,0 +1,132 @@
+package com.anddev.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anddev.images.DiskCache;
+
+/**
+ * Reading hot entries of {@link DiskCache}: opening the file for every read compared to {@link DiskCache#open(String)}, which keeps files of
+ * recently read entries open, and to packed entries, which are read from a single file. All read the whole entry, like decoder does.
+ * 
+ * @author Mantas Varnagiris
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskCacheBenchmark
+{
+	private static final int	ENTRY_COUNT	= 8;
+	private static final int	ENTRY_SIZE	= 5 * 1024;
+	private static final int	BUFFER_SIZE	= 16 * 1024;
+
+	private DiskCache			diskCache;
+	private DiskCache			packedDiskCache;
+	private String[]			keys;
+	private byte[]				buffer;
+	private int					index;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		final File cacheDir = new BenchmarkContext().getCacheDir();
+		diskCache = new DiskCache(new File(cacheDir, "disk-cache-" + System.nanoTime()), 10 * 1024 * 1024);
+		packedDiskCache = new DiskCache(new File(cacheDir, "packed-disk-cache-" + System.nanoTime()), 10 * 1024 * 1024);
+		packedDiskCache.setPackedEntryMaxSize(ENTRY_SIZE);
+
+		final byte[] data = new byte[ENTRY_SIZE];
+		new Random(1).nextBytes(data);
+		keys = new String[ENTRY_COUNT];
+		for (int i = 0; i < ENTRY_COUNT; i++)
+		{
+			keys[i] = "avatar" + i;
+			write(diskCache, keys[i], data);
+			write(packedDiskCache, keys[i], data);
+		}
+		buffer = new byte[BUFFER_SIZE];
+		index = 0;
+	}
+
+	@Benchmark
+	public int openFileEachRead() throws IOException
+	{
+		final File file = diskCache.get(keys[index++ % ENTRY_COUNT]);
+		final InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		try
+		{
+			return readAll(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public int openSnapshot() throws IOException
+	{
+		final DiskCache.Snapshot snapshot = diskCache.open(keys[index++ % ENTRY_COUNT]);
+		try
+		{
+			final FileInputStream in = snapshot.getInputStream();
+			in.getChannel().position(0);
+			return readAll(in);
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	@Benchmark
+	public int openPackedSnapshot() throws IOException
+	{
+		final DiskCache.Snapshot snapshot = packedDiskCache.open(keys[index++ % ENTRY_COUNT]);
+		try
+		{
+			return snapshot.getData().length - snapshot.getDataOffset();
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	private static void write(DiskCache diskCache, String key, byte[] data) throws IOException
+	{
+		final DiskCache.Editor editor = diskCache.edit(key);
+		final OutputStream out = editor.newOutputStream();
+		out.write(data);
+		out.close();
+		editor.commit();
+	}
+
+	private int readAll(InputStream in) throws IOException
+	{
+		int total = 0;
+		int count;
+		while ((count = in.read(buffer)) != -1)
+			total += count;
+		return total;
+	}
+}
@@ -0,0 +1,71 @@
+package com.anddev.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.widget.ImageView;
+
+import com.anddev.images.ImageParams;
+import com.anddev.images.ImageToLoad;
+import com.anddev.images.info.URLBitmapInfo;
+import com.anddev.images.processors.ScaleImageProcessor.ScaleType;
+
+/**
+ * Cost of creating {@link ImageToLoad}, which happens on UI thread for every bind, compared to names that are only needed for file cache.
+ * 
+ * @author Mantas Varnagiris
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageKeyBenchmark
+{
+	private ImageView		imageView;
+	private URLBitmapInfo	bitmapInfo;
+	private ImageParams		params;
+
+	@Setup
+	public void setUp()
+	{
+		imageView = new ImageView(new BenchmarkContext());
+		bitmapInfo = new URLBitmapInfo("http://images.example.com/photos/2013/05/12/0f1e2d3c4b5a69788796a5b4c3d2e1f0_large.jpg");
+		params = new ImageParams(240, 320, ScaleType.CENTER_CROP, null);
+	}
+
+	@Benchmark
+	public ImageToLoad createImageToLoad()
+	{
+		return new ImageToLoad(imageView, bitmapInfo, params);
+	}
+
+	@Benchmark
+	public int createImageToLoadAndHash()
+	{
+		return new ImageToLoad(imageView, bitmapInfo, params).memoryKey.hashCode();
+	}
+
+	@Benchmark
+	public String createImageToLoadAndGetMemoryName()
+	{
+		return new ImageToLoad(imageView, bitmapInfo, params).getMemoryName();
+	}
+
+	@Benchmark
+	public String createImageToLoadAndGetFileName()
+	{
+		return new ImageToLoad(imageView, bitmapInfo, params).getFileName();
+	}
+}
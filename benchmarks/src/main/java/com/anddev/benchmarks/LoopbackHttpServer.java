@@ -0,0 +1,217 @@
+package com.anddev.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server on loopback interface that stands in for an image CDN. Every path returns the same body with ETag, connections are kept
+ * alive and conditional requests get 304 Not Modified. Counts accepted and closed connections, so tests and benchmarks can check that
+ * connections are reused or closed.
+ * <p>
+ * Paths that start with {@link #STALL_PATH_PREFIX} get headers and half of the body, then server waits until client closes connection. Use them
+ * to test reads that are blocked when request is cancelled.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class LoopbackHttpServer
+{
+	public static final String	ETAG				= "\"loopback-1\"";
+	public static final String	STALL_PATH_PREFIX	= "/stall/";
+
+	private final ServerSocket	serverSocket;
+	private final byte[]		body;
+	private final AtomicInteger	connectionCount		= new AtomicInteger();
+	private final AtomicInteger	closedCount			= new AtomicInteger();
+	private final AtomicInteger	requestCount		= new AtomicInteger();
+	private volatile boolean	closed				= false;
+
+	/**
+	 * @param bodySize
+	 *            Size of the body that is returned for every path.
+	 */
+	public LoopbackHttpServer(int bodySize) throws IOException
+	{
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		body = new byte[bodySize];
+		new Random(1).nextBytes(body);
+
+		final Thread acceptThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				acceptConnections();
+			}
+		}, "LoopbackHttpServer");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public String getUrl(String path)
+	{
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+	}
+
+	public int getConnectionCount()
+	{
+		return connectionCount.get();
+	}
+
+	/**
+	 * @return Number of connections that were closed by client or after {@code Connection: close}.
+	 */
+	public int getClosedConnectionCount()
+	{
+		return closedCount.get();
+	}
+
+	public int getRequestCount()
+	{
+		return requestCount.get();
+	}
+
+	public void close() throws IOException
+	{
+		closed = true;
+		serverSocket.close();
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private void acceptConnections()
+	{
+		while (!closed)
+		{
+			try
+			{
+				final Socket socket = serverSocket.accept();
+				connectionCount.incrementAndGet();
+
+				// Headers and body are separate writes. With Nagle's algorithm the body would wait for delayed ACK of the headers.
+				socket.setTcpNoDelay(true);
+				final Thread thread = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						serve(socket);
+					}
+				}, "LoopbackHttpServer connection");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			catch (IOException e)
+			{
+				if (!closed)
+					e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Serves requests on one connection until client closes it or asks to close it.
+	 */
+	private void serve(Socket socket)
+	{
+		try
+		{
+			final InputStream in = new BufferedInputStream(socket.getInputStream());
+			final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			String requestLine;
+			while ((requestLine = readLine(in)) != null && requestLine.length() > 0)
+			{
+				requestCount.incrementAndGet();
+
+				final String[] requestParts = requestLine.split(" ");
+				final boolean stall = requestParts.length > 1 && requestParts[1].startsWith(STALL_PATH_PREFIX);
+				boolean keepAlive = !requestLine.endsWith("HTTP/1.0");
+				boolean notModified = false;
+				String header;
+				while ((header = readLine(in)) != null && header.length() > 0)
+				{
+					final String lowerCase = header.toLowerCase(Locale.US);
+					if (lowerCase.startsWith("if-none-match:"))
+						notModified = header.substring("if-none-match:".length()).trim().equals(ETAG);
+					else if (lowerCase.startsWith("connection:"))
+						keepAlive = lowerCase.contains("keep-alive") || (keepAlive && !lowerCase.contains("close"));
+				}
+
+				final StringBuilder response = new StringBuilder();
+				response.append(notModified ? "HTTP/1.1 304 Not Modified\r\n" : "HTTP/1.1 200 OK\r\n");
+				response.append("ETag: ").append(ETAG).append("\r\n");
+				response.append("Cache-Control: max-age=60\r\n");
+				if (!notModified)
+					response.append("Content-Type: image/jpeg\r\nContent-Length: ").append(body.length).append("\r\n");
+				if (!keepAlive)
+					response.append("Connection: close\r\n");
+				response.append("\r\n");
+
+				out.write(response.toString().getBytes("US-ASCII"));
+				if (stall)
+				{
+					out.write(body, 0, body.length / 2);
+					out.flush();
+
+					// Returns when client closes connection
+					while (in.read() != -1)
+						continue;
+					break;
+				}
+
+				if (!notModified)
+					out.write(body);
+				out.flush();
+
+				if (!keepAlive)
+					break;
+			}
+		}
+		catch (IOException e)
+		{
+			// Client closed connection
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			closedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return Line without line break or {@code null} at the end of stream.
+	 */
+	private static String readLine(InputStream in) throws IOException
+	{
+		final StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1)
+		{
+			if (c == '\n')
+				return line.toString();
+			if (c != '\r')
+				line.append((char) c);
+		}
+		return line.length() > 0 ? line.toString() : null;
+	}
+}
@@ -0,0 +1,82 @@
+package com.anddev.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.widget.ImageView;
+
+import com.anddev.images.ImageCache;
+import com.anddev.images.ImageParams;
+import com.anddev.images.ImageToLoad;
+import com.anddev.images.info.BitmapInfo;
+import com.anddev.images.info.URLBitmapInfo;
+import com.anddev.images.processors.ScaleImageProcessor.ScaleType;
+
+/**
+ * Memory cache path of a bind: create {@link ImageToLoad} and look it up in {@link ImageCache}. Cache is filled with as many images as a list
+ * usually has on screen and around it.
+ * 
+ * @author Mantas Varnagiris
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryCacheBenchmark
+{
+	private static final int	IMAGE_COUNT	= 32;
+
+	private ImageCache			imageCache;
+	private ImageView			imageView;
+	private ImageParams			params;
+	private BitmapInfo[]		cachedInfos;
+	private BitmapInfo[]		missingInfos;
+	private int					index;
+
+	@Setup
+	public void setUp()
+	{
+		final BenchmarkContext context = new BenchmarkContext();
+		imageCache = ImageCache.getInstance(context);
+		imageView = new ImageView(context);
+		params = new ImageParams(240, 320, ScaleType.CENTER_CROP, null);
+
+		cachedInfos = new BitmapInfo[IMAGE_COUNT];
+		missingInfos = new BitmapInfo[IMAGE_COUNT];
+		for (int i = 0; i < IMAGE_COUNT; i++)
+		{
+			cachedInfos[i] = new URLBitmapInfo("http://images.example.com/photos/cached/" + i + ".jpg");
+			missingInfos[i] = new URLBitmapInfo("http://images.example.com/photos/missing/" + i + ".jpg");
+			imageCache.putToMemory(new ImageToLoad(imageView, cachedInfos[i], params).memoryKey, Bitmap.createBitmap(240, 320, Config.RGB_565));
+		}
+		index = 0;
+	}
+
+	@Benchmark
+	public Bitmap hit()
+	{
+		final ImageToLoad imageToLoad = new ImageToLoad(imageView, cachedInfos[index++ % IMAGE_COUNT], params);
+		return imageCache.getFromMemory(imageToLoad.memoryKey);
+	}
+
+	@Benchmark
+	public Bitmap miss()
+	{
+		final ImageToLoad imageToLoad = new ImageToLoad(imageView, missingInfos[index++ % IMAGE_COUNT], params);
+		return imageCache.getFromMemory(imageToLoad.memoryKey);
+	}
+}
@@ -0,0 +1,58 @@
+package com.anddev.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anddev.images.processors.ChainImageProcessor;
+import com.anddev.images.processors.ScaleImageProcessor;
+import com.anddev.images.processors.ScaleImageProcessor.ScaleType;
+
+/**
+ * {@link ChainImageProcessor#getUniqueId()} for processor that is reused between binds and for one that is created for every bind.
+ * 
+ * @author Mantas Varnagiris
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorIdBenchmark
+{
+	private ChainImageProcessor	processor;
+
+	@Setup
+	public void setUp()
+	{
+		processor = createProcessor();
+	}
+
+	@Benchmark
+	public String reusedProcessor()
+	{
+		return processor.getUniqueId();
+	}
+
+	@Benchmark
+	public String newProcessor()
+	{
+		return createProcessor().getUniqueId();
+	}
+
+	private static ChainImageProcessor createProcessor()
+	{
+		return new ChainImageProcessor(new ScaleImageProcessor(480, 640, ScaleType.CENTER_INSIDE), new ScaleImageProcessor(240, 320,
+				ScaleType.CENTER_CROP));
+	}
+}
@@ -0,0 +1,138 @@
+package com.anddev.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anddev.images.CancelSignal;
+import com.anddev.images.transport.HttpURLConnectionTransport;
+import com.anddev.images.transport.Transport;
+import com.anddev.images.transport.Transport.Request;
+import com.anddev.images.transport.Transport.Response;
+
+/**
+ * Loads a screen of thumbnails from {@link LoopbackHttpServer}. {@link HttpURLConnectionTransport} drains and closes bodies, so connections are
+ * reused, while disconnecting after every request opens a new connection for every image. {@code connections} counter shows new connections per
+ * screen.
+ * 
+ * @author Mantas Varnagiris
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark
+{
+	private static final int	THUMBNAIL_COUNT	= 50;
+	private static final int	THUMBNAIL_SIZE	= 8 * 1024;
+
+	private LoopbackHttpServer	server;
+	private Transport			transport;
+	private String[]			urls;
+	private byte[]				buffer;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		server = new LoopbackHttpServer(THUMBNAIL_SIZE);
+		transport = new HttpURLConnectionTransport();
+		urls = new String[THUMBNAIL_COUNT];
+		for (int i = 0; i < THUMBNAIL_COUNT; i++)
+			urls[i] = server.getUrl("/thumbnail/" + i + ".jpg");
+		buffer = new byte[THUMBNAIL_SIZE];
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		server.close();
+	}
+
+	@Benchmark
+	public long pooledTransport(Connections connections) throws IOException
+	{
+		final int connectionCount = server.getConnectionCount();
+		long total = 0;
+		for (String url : urls)
+		{
+			final Response response = transport.execute(new Request(url), new CancelSignal());
+			try
+			{
+				total += read(response.getBody());
+			}
+			finally
+			{
+				response.close();
+			}
+		}
+		connections.connections += server.getConnectionCount() - connectionCount;
+		return total;
+	}
+
+	@Benchmark
+	public long disconnectEachRequest(Connections connections) throws IOException
+	{
+		final int connectionCount = server.getConnectionCount();
+		long total = 0;
+		for (String url : urls)
+		{
+			final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			try
+			{
+				total += read(connection.getInputStream());
+			}
+			finally
+			{
+				connection.disconnect();
+			}
+		}
+		connections.connections += server.getConnectionCount() - connectionCount;
+		return total;
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private long read(InputStream in) throws IOException
+	{
+		long total = 0;
+		int count;
+		while ((count = in.read(buffer)) != -1)
+			total += count;
+		return total;
+	}
+
+	// Connections
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Connections
+	{
+		public long	connections;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			connections = 0;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.anddev.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.anddev.utils.ImageUtils;
+import com.anddev.utils.StringUtils;
+
+/**
+ * {@link StringUtils#md5(String)} and {@link ImageUtils#calculateInSampleSize(int, int, int, int)}.
+ * 
+ * @author Mantas Varnagiris
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark
+{
+	/** Source sizes of typical camera and web images. Cycled through, so JIT can't fold the result. */
+	private static final int[][]	SOURCE_SIZES	= { { 3264, 2448 }, { 2592, 1936 }, { 1024, 768 }, { 640, 480 }, { 4000, 3000 }, { 320, 240 } };
+
+	private String					uniqueName;
+	private int						index;
+
+	@Setup
+	public void setUp()
+	{
+		uniqueName = "http://images.example.com/photos/2013/05/12/0f1e2d3c4b5a69788796a5b4c3d2e1f0_large.jpg_240x320_"
+				+ "com.anddev.images.processors.ScaleImageProcessor240x320";
+		index = 0;
+	}
+
+	@Benchmark
+	public String md5()
+	{
+		return StringUtils.md5(uniqueName);
+	}
+
+	@Benchmark
+	public int calculateInSampleSize()
+	{
+		final int[] size = SOURCE_SIZES[index++ % SOURCE_SIZES.length];
+		return ImageUtils.calculateInSampleSize(size[0], size[1], 240, 320);
+	}
+}
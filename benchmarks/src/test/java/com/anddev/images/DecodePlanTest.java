@@ -0,0 +1,149 @@
+package com.anddev.images;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import android.graphics.BitmapFactory;
+
+import com.anddev.images.processors.ScaleImageProcessor.ScaleType;
+import com.anddev.utils.ImageUtils;
+
+/**
+ * Checks sample sizes and density scaling that {@link DecodePlan} picks, mostly at the edges where next power of two would make bitmap smaller
+ * than the target.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class DecodePlanTest
+{
+	@Test
+	public void sampleSizeIsLargestPowerOfTwoThatCoversTarget()
+	{
+		assertEquals(4, ImageUtils.calculateInSampleSize(1000, 1000, 250, 250));
+		assertEquals(2, ImageUtils.calculateInSampleSize(999, 999, 250, 250));
+		assertEquals(2, ImageUtils.calculateInSampleSize(1000, 1000, 251, 250));
+		assertEquals(2, ImageUtils.calculateInSampleSize(1000, 1000, 250, 251));
+		assertEquals(8, ImageUtils.calculateInSampleSize(4096, 2048, 512, 256));
+		assertEquals(1, ImageUtils.calculateInSampleSize(100, 100, 100, 100));
+		assertEquals(1, ImageUtils.calculateInSampleSize(100, 100, 200, 200));
+	}
+
+	@Test
+	public void sampleSizeIsOneWithoutTarget()
+	{
+		assertEquals(1, ImageUtils.calculateInSampleSize(1000, 1000, 0, 250));
+		assertEquals(1, ImageUtils.calculateInSampleSize(1000, 1000, 250, -1));
+	}
+
+	@Test
+	public void exactPowerOfTwoIsNotScaled()
+	{
+		final BitmapFactory.Options options = apply(1000, 1000, 250, 250, ScaleType.CENTER_CROP, true);
+
+		assertEquals(4, options.inSampleSize);
+		assertFalse(DecodePlan.isScaling(options));
+	}
+
+	@Test
+	public void restIsScaledByDensity()
+	{
+		final BitmapFactory.Options options = apply(1000, 1000, 300, 300, ScaleType.CENTER_CROP, true);
+
+		assertEquals(2, options.inSampleSize);
+		assertTrue(DecodePlan.isScaling(options));
+		assertEquals(500, options.inDensity);
+		assertEquals(300, options.inTargetDensity);
+	}
+
+	@Test
+	public void onePixelOverPowerOfTwoIsScaledFromPreviousPowerOfTwo()
+	{
+		final BitmapFactory.Options options = apply(1000, 1000, 251, 251, ScaleType.CENTER_CROP, true);
+
+		assertEquals(2, options.inSampleSize);
+		assertEquals(500, options.inDensity);
+		assertEquals(251, options.inTargetDensity);
+	}
+
+	@Test
+	public void centerCropScalesByDimensionThatStillCoversTarget()
+	{
+		// Scaled image is 450x300, so height decides the scale
+		final BitmapFactory.Options options = apply(1200, 800, 300, 300, ScaleType.CENTER_CROP, true);
+
+		assertEquals(2, options.inSampleSize);
+		assertEquals(600, options.inDensity);
+		assertEquals(450, options.inTargetDensity);
+		assertCovers(1200, 800, options, 450, 300);
+	}
+
+	@Test
+	public void centerInsideSamplesToFitInside()
+	{
+		// Scaled image is 300x200
+		final BitmapFactory.Options options = apply(1200, 800, 300, 300, ScaleType.CENTER_INSIDE, true);
+
+		assertEquals(4, options.inSampleSize);
+		assertFalse(DecodePlan.isScaling(options));
+	}
+
+	@Test
+	public void fitXYCoversBothDimensions()
+	{
+		final BitmapFactory.Options options = apply(1000, 500, 200, 200, ScaleType.FIT_XY, true);
+
+		assertEquals(2, options.inSampleSize);
+		assertEquals(250, options.inDensity);
+		assertEquals(200, options.inTargetDensity);
+		assertCovers(1000, 500, options, 200, 200);
+	}
+
+	@Test
+	public void centerIsNeverSampled()
+	{
+		final BitmapFactory.Options options = apply(1000, 1000, 100, 100, ScaleType.CENTER, true);
+
+		assertEquals(1, options.inSampleSize);
+		assertFalse(DecodePlan.isScaling(options));
+	}
+
+	@Test
+	public void densityIsNotUsedWhenScalingIsNotAllowed()
+	{
+		final BitmapFactory.Options options = apply(1000, 1000, 300, 300, ScaleType.CENTER_CROP, false);
+
+		assertEquals(2, options.inSampleSize);
+		assertFalse(DecodePlan.isScaling(options));
+	}
+
+	@Test
+	public void unknownSizeIsNotSampled()
+	{
+		assertEquals(1, apply(0, 1000, 100, 100, ScaleType.CENTER_CROP, true).inSampleSize);
+		assertEquals(1, apply(1000, 1000, ImageParams.NO_SIZE, ImageParams.NO_SIZE, ScaleType.CENTER_CROP, true).inSampleSize);
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static BitmapFactory.Options apply(int sourceWidth, int sourceHeight, int width, int height, ScaleType scaleType,
+			boolean allowScaling)
+	{
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		DecodePlan.apply(options, sourceWidth, sourceHeight, new ImageParams(width, height, scaleType, null), allowScaling);
+		return options;
+	}
+
+	/**
+	 * Checks that decoded bitmap is not smaller than target in any dimension.
+	 */
+	private static void assertCovers(int sourceWidth, int sourceHeight, BitmapFactory.Options options, int targetWidth, int targetHeight)
+	{
+		final float scale = DecodePlan.isScaling(options) ? (float) options.inTargetDensity / options.inDensity : 1.0f;
+		assertTrue((int) (sourceWidth / options.inSampleSize * scale + 0.5f) >= targetWidth);
+		assertTrue((int) (sourceHeight / options.inSampleSize * scale + 0.5f) >= targetHeight);
+	}
+}
@@ -0,0 +1,254 @@
+package com.anddev.images;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks journal replay, eviction order and pack compaction of {@link DiskCache}. Every test reopens cache on the same directory, like app does
+ * after it is restarted.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class DiskCacheTest
+{
+	private static final int		ENTRY_SIZE	= 100;
+
+	@Rule
+	public final TemporaryFolder	folder		= new TemporaryFolder();
+
+	private File					directory;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		directory = folder.newFolder();
+	}
+
+	@Test
+	public void ignoresCutOffJournalLineAndRebuildsJournal() throws IOException
+	{
+		final DiskCache diskCache = new DiskCache(directory, 10 * ENTRY_SIZE);
+		write(diskCache, "a", data(ENTRY_SIZE, 1));
+		write(diskCache, "b", data(ENTRY_SIZE, 2));
+		diskCache.flush();
+
+		// App was killed while it was writing the next line
+		appendToJournal("REMOVE");
+
+		final DiskCache reopened = new DiskCache(directory, 10 * ENTRY_SIZE);
+		assertEquals(2 * ENTRY_SIZE, reopened.size());
+		assertArrayEquals(data(ENTRY_SIZE, 1), read(reopened, "a"));
+		assertArrayEquals(data(ENTRY_SIZE, 2), read(reopened, "b"));
+		assertEquals(Arrays.asList(DiskCache.MAGIC + " " + DiskCache.VERSION, "CLEAN a 100 0 0", "CLEAN b 100 0 0"), readJournal());
+	}
+
+	@Test
+	public void dropsEntryWhoseJournalLineWasCutOffInLength() throws IOException
+	{
+		final DiskCache diskCache = new DiskCache(directory, 10 * ENTRY_SIZE);
+		write(diskCache, "a", data(ENTRY_SIZE, 1));
+		diskCache.flush();
+
+		// File was renamed, but only part of its length was written to journal
+		final OutputStream out = new FileOutputStream(new File(directory, "b"));
+		out.write(data(ENTRY_SIZE, 2));
+		out.close();
+		appendToJournal("CLEAN b 10");
+
+		final DiskCache reopened = new DiskCache(directory, 10 * ENTRY_SIZE);
+		assertTrue(reopened.contains("a"));
+		assertFalse(reopened.contains("b"));
+		assertFalse(new File(directory, "b").exists());
+		assertEquals(ENTRY_SIZE, reopened.size());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntry() throws IOException
+	{
+		final DiskCache diskCache = new DiskCache(directory, 3 * ENTRY_SIZE);
+		write(diskCache, "a", data(ENTRY_SIZE, 1));
+		write(diskCache, "b", data(ENTRY_SIZE, 2));
+		write(diskCache, "c", data(ENTRY_SIZE, 3));
+		read(diskCache, "a");
+
+		write(diskCache, "d", data(ENTRY_SIZE, 4));
+		assertFalse(diskCache.contains("b"));
+		assertTrue(diskCache.contains("a"));
+		assertTrue(diskCache.contains("c"));
+		assertTrue(diskCache.contains("d"));
+		assertEquals(3 * ENTRY_SIZE, diskCache.size());
+	}
+
+	@Test
+	public void keepsAccessOrderAfterReopen() throws IOException
+	{
+		final DiskCache diskCache = new DiskCache(directory, 3 * ENTRY_SIZE);
+		write(diskCache, "a", data(ENTRY_SIZE, 1));
+		write(diskCache, "b", data(ENTRY_SIZE, 2));
+		write(diskCache, "c", data(ENTRY_SIZE, 3));
+		read(diskCache, "a");
+		diskCache.flush();
+
+		final DiskCache reopened = new DiskCache(directory, 3 * ENTRY_SIZE);
+		write(reopened, "d", data(ENTRY_SIZE, 4));
+		assertFalse(reopened.contains("b"));
+		assertTrue(reopened.contains("a"));
+
+		write(reopened, "e", data(ENTRY_SIZE, 5));
+		assertFalse(reopened.contains("c"));
+		assertTrue(reopened.contains("a"));
+	}
+
+	@Test
+	public void shrinkingMaxSizeEvictsLeastRecentlyUsedEntries() throws IOException
+	{
+		final DiskCache diskCache = new DiskCache(directory, 3 * ENTRY_SIZE);
+		write(diskCache, "a", data(ENTRY_SIZE, 1));
+		write(diskCache, "b", data(ENTRY_SIZE, 2));
+		write(diskCache, "c", data(ENTRY_SIZE, 3));
+		read(diskCache, "a");
+
+		diskCache.setMaxSize(ENTRY_SIZE);
+		assertFalse(diskCache.contains("b"));
+		assertFalse(diskCache.contains("c"));
+		assertTrue(diskCache.contains("a"));
+	}
+
+	@Test
+	public void packCompactionKeepsLiveEntries() throws IOException
+	{
+		// Removed entries must take more than compaction threshold of 256KB and more than half of the pack
+		final int entrySize = 8 * 1024;
+		final int entryCount = 64;
+		final int removedCount = 40;
+		final DiskCache diskCache = new DiskCache(directory, 10 * 1024 * 1024);
+		diskCache.setPackedEntryMaxSize(entrySize);
+		for (int i = 0; i < entryCount; i++)
+			write(diskCache, "k" + i, data(entrySize, i));
+
+		final File packFile = new File(directory, DiskCache.PACK_FILE);
+		final long packLength = packFile.length();
+		for (int i = 0; i < removedCount; i++)
+			assertTrue(diskCache.remove("k" + i));
+
+		assertTrue("Pack was not compacted.", packFile.length() < packLength);
+		for (int i = removedCount; i < entryCount; i++)
+			assertArrayEquals(data(entrySize, i), read(diskCache, "k" + i));
+
+		// Journal points to new offsets
+		final DiskCache reopened = new DiskCache(directory, 10 * 1024 * 1024);
+		assertEquals((long) (entryCount - removedCount) * entrySize, reopened.size());
+		for (int i = 0; i < removedCount; i++)
+			assertFalse(reopened.contains("k" + i));
+		for (int i = removedCount; i < entryCount; i++)
+			assertArrayEquals(data(entrySize, i), read(reopened, "k" + i));
+	}
+
+	@Test
+	public void packedEntryIsReplaced() throws IOException
+	{
+		final DiskCache diskCache = new DiskCache(directory, 10 * ENTRY_SIZE);
+		diskCache.setPackedEntryMaxSize(ENTRY_SIZE);
+		write(diskCache, "a", data(ENTRY_SIZE, 1));
+		write(diskCache, "a", data(ENTRY_SIZE / 2, 2));
+
+		assertEquals(ENTRY_SIZE / 2, diskCache.size());
+		assertArrayEquals(data(ENTRY_SIZE / 2, 2), read(diskCache, "a"));
+		assertNull(diskCache.get("a"));
+		assertArrayEquals(data(ENTRY_SIZE / 2, 2), read(new DiskCache(directory, 10 * ENTRY_SIZE), "a"));
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static byte[] data(int size, int seed)
+	{
+		final byte[] data = new byte[size];
+		for (int i = 0; i < size; i++)
+			data[i] = (byte) (seed * 31 + i);
+		return data;
+	}
+
+	private static void write(DiskCache diskCache, String key, byte[] data) throws IOException
+	{
+		final DiskCache.Editor editor = diskCache.edit(key);
+		final OutputStream out = editor.newOutputStream();
+		out.write(data);
+		out.close();
+		assertTrue(editor.commit());
+	}
+
+	private static byte[] read(DiskCache diskCache, String key) throws IOException
+	{
+		final DiskCache.Snapshot snapshot = diskCache.open(key);
+		assertTrue("Missing entry " + key, snapshot != null);
+		try
+		{
+			final byte[] data = new byte[(int) snapshot.getLength()];
+			if (snapshot.isPacked())
+			{
+				System.arraycopy(snapshot.getData(), snapshot.getDataOffset(), data, 0, data.length);
+				return data;
+			}
+
+			// File stays open for the next read, so it is not closed here
+			final FileInputStream in = snapshot.getInputStream();
+			in.getChannel().position(0);
+			int offset = 0;
+			int count;
+			while (offset < data.length && (count = in.read(data, offset, data.length - offset)) != -1)
+				offset += count;
+			assertEquals(-1, in.read());
+			return data;
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	private void appendToJournal(String text) throws IOException
+	{
+		final Writer writer = new FileWriter(new File(directory, DiskCache.JOURNAL_FILE), true);
+		writer.write(text);
+		writer.close();
+	}
+
+	private List<String> readJournal() throws IOException
+	{
+		final List<String> lines = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader(new FileReader(new File(directory, DiskCache.JOURNAL_FILE)));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.add(line);
+		}
+		finally
+		{
+			reader.close();
+		}
+		return lines;
+	}
+}
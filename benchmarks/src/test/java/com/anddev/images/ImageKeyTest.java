@@ -0,0 +1,81 @@
+package com.anddev.images;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import android.graphics.Bitmap.Config;
+
+import com.anddev.images.info.BitmapInfo;
+import com.anddev.images.info.URLBitmapInfo;
+import com.anddev.images.processors.ScaleImageProcessor.ScaleType;
+
+/**
+ * Checks that {@link ImageKey} tells apart every request that decodes to a different bitmap.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class ImageKeyTest
+{
+	private static final String	SOURCE_ID	= "http://example.com/image.jpg";
+
+	@Test
+	public void keysWithSameScaleTypeAreEqual()
+	{
+		final ImageKey key = new ImageKey(SOURCE_ID, 100, 200, ScaleType.CENTER_CROP, "processor", Config.RGB_565);
+		final ImageKey other = new ImageKey(SOURCE_ID, 100, 200, ScaleType.CENTER_CROP, "processor", Config.RGB_565);
+
+		assertEquals(key, other);
+		assertEquals(key.hashCode(), other.hashCode());
+		assertEquals(key.toString(), other.toString());
+	}
+
+	@Test
+	public void keysWithoutScaleTypeAreEqual()
+	{
+		final ImageKey key = new ImageKey(SOURCE_ID, 100, 200, null, null, null);
+		final ImageKey other = new ImageKey(SOURCE_ID, 100, 200, null, null, null);
+
+		assertEquals(key, other);
+		assertEquals(key.hashCode(), other.hashCode());
+	}
+
+	@Test
+	public void keysWithDifferentScaleTypeAreNotEqual()
+	{
+		final ImageKey centerCrop = new ImageKey(SOURCE_ID, 100, 200, ScaleType.CENTER_CROP, null, null);
+		final ImageKey centerInside = new ImageKey(SOURCE_ID, 100, 200, ScaleType.CENTER_INSIDE, null, null);
+		final ImageKey noScaleType = new ImageKey(SOURCE_ID, 100, 200, null, null, null);
+
+		assertFalse(centerCrop.equals(centerInside));
+		assertFalse(centerCrop.equals(noScaleType));
+		assertFalse(noScaleType.equals(centerCrop));
+
+		// Memory name of the processed file is made from toString()
+		assertFalse(centerCrop.toString().equals(centerInside.toString()));
+		assertFalse(centerCrop.toString().equals(noScaleType.toString()));
+	}
+
+	@Test
+	public void keysWithDifferentSizeProcessorOrConfigAreNotEqual()
+	{
+		final ImageKey key = new ImageKey(SOURCE_ID, 100, 200, null, "processor", Config.RGB_565);
+
+		assertFalse(key.equals(new ImageKey(SOURCE_ID, 200, 100, null, "processor", Config.RGB_565)));
+		assertFalse(key.equals(new ImageKey(SOURCE_ID, 100, 200, null, null, Config.RGB_565)));
+		assertFalse(key.equals(new ImageKey(SOURCE_ID, 100, 200, null, "processor", null)));
+		assertFalse(key.equals(new ImageKey(SOURCE_ID + "?", 100, 200, null, "processor", Config.RGB_565)));
+	}
+
+	@Test
+	public void requestKeyIncludesScaleTypeOfParams()
+	{
+		final BitmapInfo bitmapInfo = new URLBitmapInfo(SOURCE_ID);
+		final ImageKey centerCrop = new ImageToLoad(null, bitmapInfo, new ImageParams(100, 100, ScaleType.CENTER_CROP, null)).memoryKey;
+		final ImageKey centerInside = new ImageToLoad(null, bitmapInfo, new ImageParams(100, 100, ScaleType.CENTER_INSIDE, null)).memoryKey;
+
+		assertEquals(ScaleType.CENTER_CROP, centerCrop.scaleType);
+		assertFalse(centerCrop.equals(centerInside));
+	}
+}
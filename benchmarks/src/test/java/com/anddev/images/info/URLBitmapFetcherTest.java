@@ -0,0 +1,172 @@
+package com.anddev.images.info;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.anddev.benchmarks.BenchmarkContext;
+import com.anddev.images.DiskCache;
+import com.anddev.images.info.URLBitmapInfo.URLBitmapFetcher;
+import com.anddev.images.transport.Transport.Response;
+
+/**
+ * Checks how {@link URLBitmapFetcher} reads freshness and validators of responses.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class URLBitmapFetcherTest
+{
+	private static final long	MINUTE	= 60 * 1000;
+	private static final long	HOUR	= 60 * MINUTE;
+
+	private URLBitmapFetcher	fetcher;
+
+	@Before
+	public void setUp()
+	{
+		fetcher = URLBitmapFetcher.getInstance(new BenchmarkContext());
+	}
+
+	@After
+	public void tearDown()
+	{
+		fetcher.setDefaultMaxAge(URLBitmapFetcher.DEFAULT_MAX_AGE);
+	}
+
+	@Test
+	public void maxAgeHasPriorityOverExpires()
+	{
+		final long now = System.currentTimeMillis();
+		final FakeResponse response = new FakeResponse().setHeader("Cache-Control", "public, max-age=60").setDateHeader("Expires", now + HOUR);
+
+		assertExpires(MINUTE, fetcher.readMetadata(response, null));
+	}
+
+	@Test
+	public void noCacheHasPriorityOverMaxAgeInAnyOrder()
+	{
+		final long now = System.currentTimeMillis();
+		final DiskCache.Metadata noCacheFirst = fetcher.readMetadata(new FakeResponse().setHeader("Cache-Control", "no-cache, max-age=60"), null);
+		final DiskCache.Metadata noCacheLast = fetcher.readMetadata(new FakeResponse().setHeader("Cache-Control", "max-age=60, No-Cache"), null);
+
+		assertTrue(noCacheFirst.expires >= now && noCacheFirst.expires <= System.currentTimeMillis());
+		assertTrue(noCacheLast.expires >= now && noCacheLast.expires <= System.currentTimeMillis());
+	}
+
+	@Test
+	public void expiresIsUsedWithoutMaxAge()
+	{
+		final long expires = System.currentTimeMillis() + HOUR;
+		final FakeResponse response = new FakeResponse().setHeader("Cache-Control", "public").setDateHeader("Expires", expires);
+
+		assertEquals(expires, fetcher.readMetadata(response, null).expires);
+	}
+
+	@Test
+	public void invalidMaxAgeFallsBackToExpires()
+	{
+		final long expires = System.currentTimeMillis() + HOUR;
+		final FakeResponse response = new FakeResponse().setHeader("Cache-Control", "max-age=soon").setDateHeader("Expires", expires);
+
+		assertEquals(expires, fetcher.readMetadata(response, null).expires);
+	}
+
+	@Test
+	public void defaultMaxAgeIsUsedWithoutFreshnessHeaders()
+	{
+		fetcher.setDefaultMaxAge(10 * MINUTE);
+		assertExpires(10 * MINUTE, fetcher.readMetadata(new FakeResponse(), null));
+
+		fetcher.setDefaultMaxAge(0);
+		assertEquals(0, fetcher.readMetadata(new FakeResponse(), null).expires);
+	}
+
+	@Test
+	public void notModifiedResponseKeepsCachedValidators()
+	{
+		final DiskCache.Metadata cachedMetadata = new DiskCache.Metadata("\"v1\"", 1000, 0);
+		final DiskCache.Metadata metadata = fetcher.readMetadata(new FakeResponse().setHeader("Cache-Control", "max-age=60"), cachedMetadata);
+
+		assertEquals("\"v1\"", metadata.etag);
+		assertEquals(1000, metadata.lastModified);
+		assertTrue(metadata.isSameVersion(cachedMetadata));
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Checks that metadata expires after given time from now. Time passes while metadata is read, so both ends of it are allowed.
+	 */
+	private static void assertExpires(long maxAge, DiskCache.Metadata metadata)
+	{
+		final long now = System.currentTimeMillis();
+		final String message = "Expires " + (metadata.expires - now) + "ms from now.";
+		assertTrue(message, metadata.expires <= now + maxAge && metadata.expires > now + maxAge - MINUTE);
+	}
+
+	// FakeResponse
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class FakeResponse extends Response
+	{
+		private final Map<String, String>	headers		= new HashMap<String, String>();
+		private final Map<String, Long>		dateHeaders	= new HashMap<String, Long>();
+
+		public FakeResponse setHeader(String name, String value)
+		{
+			headers.put(name, value);
+			return this;
+		}
+
+		public FakeResponse setDateHeader(String name, long value)
+		{
+			dateHeaders.put(name, value);
+			return this;
+		}
+
+		@Override
+		public int getCode()
+		{
+			return 200;
+		}
+
+		@Override
+		public String getHeader(String name)
+		{
+			return headers.get(name);
+		}
+
+		@Override
+		public long getDateHeader(String name)
+		{
+			final Long value = dateHeaders.get(name);
+			return value != null ? value : 0;
+		}
+
+		@Override
+		public long getContentLength()
+		{
+			return 0;
+		}
+
+		@Override
+		public InputStream getBody()
+		{
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
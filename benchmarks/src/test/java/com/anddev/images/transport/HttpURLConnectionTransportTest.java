@@ -0,0 +1,263 @@
+package com.anddev.images.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.anddev.benchmarks.LoopbackHttpServer;
+import com.anddev.images.CancelSignal;
+import com.anddev.images.transport.Transport.Request;
+import com.anddev.images.transport.Transport.Response;
+
+/**
+ * Checks connection handling of {@link HttpURLConnectionTransport} against {@link LoopbackHttpServer}.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class HttpURLConnectionTransportTest
+{
+	private static final int	SMALL_BODY_SIZE		= 8 * 1024;
+	/** Remainder of the body is bigger than transport drains and than JVM drains in background after stream is closed. */
+	private static final int	LARGE_BODY_SIZE		= 2 * 1024 * 1024;
+	private static final int	TIMEOUT				= 10 * 1000;
+	private static final int	SHORT_READ_TIMEOUT	= 1000;
+	/** How long to wait before deciding that blocked call is still blocked. */
+	private static final long	BLOCKED_MILLIS		= 300;
+
+	private LoopbackHttpServer	server;
+	private ExecutorService		executorService;
+
+	@Before
+	public void setUp()
+	{
+		executorService = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		executorService.shutdownNow();
+		if (server != null)
+			server.close();
+	}
+
+	@Test
+	public void reusesConnectionWhenUnreadBodyIsDrained() throws IOException
+	{
+		server = new LoopbackHttpServer(SMALL_BODY_SIZE);
+		final Transport transport = new HttpURLConnectionTransport();
+
+		for (int i = 0; i < 3; i++)
+			transport.execute(new Request(server.getUrl("/image/" + i)), new CancelSignal()).close();
+
+		assertEquals(3, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void reusesConnectionWhenBodyIsRead() throws IOException
+	{
+		server = new LoopbackHttpServer(SMALL_BODY_SIZE);
+		final Transport transport = new HttpURLConnectionTransport();
+
+		for (int i = 0; i < 3; i++)
+		{
+			final Response response = transport.execute(new Request(server.getUrl("/image/" + i)), new CancelSignal());
+			try
+			{
+				assertEquals(SMALL_BODY_SIZE, readAll(response.getBody()));
+			}
+			finally
+			{
+				response.close();
+			}
+		}
+
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void closesConnectionWhenRestOfBodyIsTooBigToDrain() throws IOException
+	{
+		server = new LoopbackHttpServer(LARGE_BODY_SIZE);
+		final Transport transport = new HttpURLConnectionTransport();
+
+		transport.execute(new Request(server.getUrl("/image/1")), new CancelSignal()).close();
+		transport.execute(new Request(server.getUrl("/image/2")), new CancelSignal()).close();
+
+		assertEquals(2, server.getRequestCount());
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	@Test
+	public void waitsForFreeConnectionToTheSameHost() throws Exception
+	{
+		server = new LoopbackHttpServer(SMALL_BODY_SIZE);
+		final Transport transport = new HttpURLConnectionTransport(2, TIMEOUT, TIMEOUT);
+		final Response first = transport.execute(new Request(server.getUrl("/image/1")), new CancelSignal());
+		final Response second = transport.execute(new Request(server.getUrl("/image/2")), new CancelSignal());
+
+		final Future<Response> third = executeAsync(transport, server.getUrl("/image/3"), new CancelSignal());
+		assertBlocked(third);
+		assertEquals(2, server.getRequestCount());
+
+		first.close();
+		third.get(TIMEOUT, TimeUnit.MILLISECONDS).close();
+		second.close();
+		assertEquals(3, server.getRequestCount());
+	}
+
+	@Test
+	public void cancelStopsWaitingForFreeConnection() throws Exception
+	{
+		server = new LoopbackHttpServer(SMALL_BODY_SIZE);
+		final Transport transport = new HttpURLConnectionTransport(1, TIMEOUT, TIMEOUT);
+		final Response first = transport.execute(new Request(server.getUrl("/image/1")), new CancelSignal());
+
+		final CancelSignal cancelSignal = new CancelSignal();
+		final Future<Response> second = executeAsync(transport, server.getUrl("/image/2"), cancelSignal);
+		assertBlocked(second);
+
+		cancelSignal.cancel();
+		try
+		{
+			second.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			fail("Cancelled request must not get a response.");
+		}
+		catch (ExecutionException e)
+		{
+			assertTrue(e.getCause() instanceof InterruptedIOException);
+		}
+		finally
+		{
+			first.close();
+		}
+
+		// Permit of cancelled request is not leaked
+		transport.execute(new Request(server.getUrl("/image/3")), new CancelSignal()).close();
+		assertEquals(2, server.getRequestCount());
+	}
+
+	@Test
+	public void cancelClosesConnection() throws Exception
+	{
+		server = new LoopbackHttpServer(LARGE_BODY_SIZE);
+		final Transport transport = new HttpURLConnectionTransport(1, TIMEOUT, TIMEOUT);
+		final CancelSignal cancelSignal = new CancelSignal();
+		final Response response = transport.execute(new Request(server.getUrl(LoopbackHttpServer.STALL_PATH_PREFIX + "image")), cancelSignal);
+
+		cancelSignal.cancel();
+		try
+		{
+			// Connection is closed in background
+			final long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (server.getClosedConnectionCount() == 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertEquals(1, server.getClosedConnectionCount());
+		}
+		finally
+		{
+			response.close();
+		}
+
+		// Permit is released even though body was not read
+		transport.execute(new Request(server.getUrl("/image/1")), new CancelSignal()).close();
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	/**
+	 * Requests are cancelled from UI thread, so cancel must not wait for connection to close. JVM's {@link java.net.HttpURLConnection} can't
+	 * close connection while other thread reads from it, which makes this easy to see.
+	 */
+	@Test
+	public void cancelDoesNotWaitForBlockedRead() throws Exception
+	{
+		server = new LoopbackHttpServer(LARGE_BODY_SIZE);
+		final Transport transport = new HttpURLConnectionTransport(1, TIMEOUT, SHORT_READ_TIMEOUT);
+		final CancelSignal cancelSignal = new CancelSignal();
+		final Response response = transport.execute(new Request(server.getUrl(LoopbackHttpServer.STALL_PATH_PREFIX + "image")), cancelSignal);
+		final InputStream body = response.getBody();
+
+		final Future<Integer> read = executorService.submit(new Callable<Integer>()
+		{
+			@Override
+			public Integer call() throws IOException
+			{
+				return readAll(body);
+			}
+		});
+		assertBlocked(read);
+
+		final long startTime = System.currentTimeMillis();
+		cancelSignal.cancel();
+		final long cancelMillis = System.currentTimeMillis() - startTime;
+		try
+		{
+			read.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			fail("Read of stalled body must fail.");
+		}
+		catch (ExecutionException e)
+		{
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		finally
+		{
+			response.close();
+		}
+
+		assertTrue("Cancel took " + cancelMillis + "ms.", cancelMillis < SHORT_READ_TIMEOUT / 2);
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private Future<Response> executeAsync(final Transport transport, final String url, final CancelSignal cancelSignal)
+	{
+		return executorService.submit(new Callable<Response>()
+		{
+			@Override
+			public Response call() throws IOException
+			{
+				return transport.execute(new Request(url), cancelSignal);
+			}
+		});
+	}
+
+	private static void assertBlocked(Future<?> future) throws Exception
+	{
+		try
+		{
+			future.get(BLOCKED_MILLIS, TimeUnit.MILLISECONDS);
+			fail("Call must be blocked.");
+		}
+		catch (TimeoutException e)
+		{
+			// Expected
+		}
+	}
+
+	private static int readAll(InputStream in) throws IOException
+	{
+		final byte[] buffer = new byte[4 * 1024];
+		int total = 0;
+		int count;
+		while ((count = in.read(buffer)) != -1)
+			total += count;
+		return total;
+	}
+}
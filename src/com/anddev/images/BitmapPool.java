@@ -0,0 +1,180 @@
+package com.anddev.images;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+
+import com.anddev.utils.APIUtils;
+
+/**
+ * Keeps bitmaps that are not used anymore, so they can be reused by decoders ({@link BitmapFactory.Options#inBitmap}) and image processors instead
+ * of allocating new ones. Bitmaps are grouped by width, height and {@link Config}, because only bitmaps of the same size can be reused before KitKat.
+ * <p>
+ * Only mutable bitmaps are accepted and only on Honeycomb and above. When pool gets too big, oldest bitmaps are recycled.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class BitmapPool
+{
+	private static BitmapPool						instance	= null;
+
+	private final Map<Long, ArrayList<Bitmap>>		buckets		= new HashMap<Long, ArrayList<Bitmap>>();
+	private final LinkedList<Bitmap>				order		= new LinkedList<Bitmap>();
+	private int										maxSize;
+	private int										size		= 0;
+
+	public static synchronized BitmapPool getInstance()
+	{
+		if (instance == null)
+			instance = new BitmapPool((int) (Runtime.getRuntime().maxMemory() / 16));
+		return instance;
+	}
+
+	/**
+	 * @param maxSize
+	 *            Maximum size of all bitmaps in pool in bytes.
+	 */
+	public BitmapPool(int maxSize)
+	{
+		this.maxSize = maxSize;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Gives bitmap to pool. Caller must not use bitmap after this call if it was accepted.
+	 * 
+	 * @param bitmap
+	 *            Bitmap that is not used anymore.
+	 * @return {@code true} if bitmap was accepted; {@code false} otherwise. Caller is responsible for rejected bitmap.
+	 */
+	public synchronized boolean put(Bitmap bitmap)
+	{
+		if (!APIUtils.SUPPORTS_HONEYCOMB || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null)
+			return false;
+
+		final int bitmapSize = getBitmapSize(bitmap);
+		if (bitmapSize > maxSize)
+			return false;
+
+		final Long key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+		ArrayList<Bitmap> bucket = buckets.get(key);
+		if (bucket == null)
+		{
+			bucket = new ArrayList<Bitmap>();
+			buckets.put(key, bucket);
+		}
+		bucket.add(bitmap);
+		order.addLast(bitmap);
+		size += bitmapSize;
+
+		trimToSize(maxSize);
+		return true;
+	}
+
+	/**
+	 * Takes bitmap from pool. Returned bitmap contains old pixels.
+	 * 
+	 * @return Bitmap with given size and config or {@code null} if there is no such bitmap in pool.
+	 */
+	public synchronized Bitmap get(int width, int height, Config config)
+	{
+		final ArrayList<Bitmap> bucket = buckets.get(getKey(width, height, config));
+		if (bucket == null || bucket.isEmpty())
+			return null;
+
+		final Bitmap bitmap = bucket.remove(bucket.size() - 1);
+		order.remove(bitmap);
+		size -= getBitmapSize(bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Makes given options decode into bitmap from pool if possible. Options must contain bounds of the image, so call this after decoding with
+	 * {@link BitmapFactory.Options#inJustDecodeBounds}. Decoded bitmap will be mutable, so it can be returned to the pool later.
+	 * 
+	 * @param options
+	 *            Options that will be used for decoding.
+	 */
+	@TargetApi(11)
+	public void addInBitmapOptions(BitmapFactory.Options options)
+	{
+		if (!APIUtils.SUPPORTS_HONEYCOMB)
+			return;
+
+		options.inMutable = true;
+
+		// Before KitKat bitmap has to be of exactly the same size and inSampleSize must be 1. If decoder scales by density, decoded bitmap is
+		// replaced by a scaled copy and recycled, so pool is not used then.
+		if (options.inSampleSize <= 1 && options.outWidth > 0 && options.outHeight > 0 && !DecodePlan.isScaling(options))
+		{
+			final Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Config.ARGB_8888;
+			options.inBitmap = get(options.outWidth, options.outHeight, config);
+		}
+	}
+
+	/**
+	 * Recycles oldest bitmaps until pool size is not bigger than given size.
+	 * 
+	 * @param maxSize
+	 *            Size in bytes.
+	 */
+	public synchronized void trimToSize(int maxSize)
+	{
+		while (size > maxSize && !order.isEmpty())
+		{
+			final Bitmap bitmap = order.removeFirst();
+			buckets.get(getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig())).remove(bitmap);
+			size -= getBitmapSize(bitmap);
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Recycles all bitmaps in pool.
+	 */
+	public void clear()
+	{
+		trimToSize(0);
+	}
+
+	public synchronized void setMaxSize(int maxSize)
+	{
+		this.maxSize = maxSize;
+		trimToSize(maxSize);
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return Size of bitmap in bytes.
+	 */
+	@TargetApi(12)
+	public static int getBitmapSize(Bitmap bitmap)
+	{
+		if (APIUtils.SUPPORTS_HONEYCOMB_MR1)
+			return bitmap.getByteCount();
+
+		// Pre HC-MR1
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static Long getKey(int width, int height, Config config)
+	{
+		return Long.valueOf(((long) width << 32) | ((long) height << 8) | config.ordinal());
+	}
+}
@@ -0,0 +1,70 @@
+package com.anddev.images;
+
+/**
+ * Lets {@link ImageLoader} cancel work that fetchers are doing right now. Fetchers check {@link #isCancelled()} between steps and set
+ * {@link OnCancelListener} to stop blocking operations, like decoding or reading from network.
+ * <p>
+ * Same idea as CancellationSignal, which is not available before Jelly Bean.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class CancelSignal
+{
+	private volatile boolean	cancelled		= false;
+	private OnCancelListener	onCancelListener;
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Cancels and calls {@link OnCancelListener} on current thread. Does nothing if already cancelled.
+	 */
+	public void cancel()
+	{
+		final OnCancelListener listener;
+		synchronized (this)
+		{
+			if (cancelled)
+				return;
+
+			cancelled = true;
+			listener = onCancelListener;
+		}
+
+		if (listener != null)
+			listener.onCancel();
+	}
+
+	/**
+	 * Sets listener that stops current operation. If already cancelled, listener is called right away. Set {@code null} when operation is
+	 * finished.
+	 * 
+	 * @param onCancelListener
+	 *            Listener or {@code null}.
+	 */
+	public void setOnCancelListener(OnCancelListener onCancelListener)
+	{
+		synchronized (this)
+		{
+			this.onCancelListener = onCancelListener;
+			if (!cancelled || onCancelListener == null)
+				return;
+		}
+
+		onCancelListener.onCancel();
+	}
+
+	// OnCancelListener
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public static interface OnCancelListener
+	{
+		public void onCancel();
+	}
+}
@@ -0,0 +1,186 @@
+package com.anddev.images;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+
+import com.anddev.images.processors.ScaleImageProcessor.ScaleType;
+import com.anddev.utils.ImageUtils;
+
+/**
+ * Plans how bitmap should be decoded, so decoder returns bitmap that is as close as possible to the size it will be displayed at and does not use
+ * more memory per pixel than needed.
+ * <p>
+ * First, the largest power of two inSampleSize that still covers the target for given {@link ScaleType} is picked. Then, if scaling is allowed,
+ * remaining difference is scaled by decoder using {@link BitmapFactory.Options#inDensity} and {@link BitmapFactory.Options#inTargetDensity}, so
+ * image processor has little or nothing left to do.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class DecodePlan
+{
+	private static final byte[]	JPEG_MAGIC	= new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF };
+
+	/**
+	 * Sets sample size and scaling on given options.
+	 * 
+	 * @param options
+	 *            Options that will be used for decoding.
+	 * @param sourceWidth
+	 *            Width of the image.
+	 * @param sourceHeight
+	 *            Height of the image.
+	 * @param params
+	 *            Params that contain required size and scale type.
+	 * @param allowScaling
+	 *            If {@code true}, density scaling is used to get closer to required size. Don't use it for resources, because they use density for
+	 *            themselves.
+	 */
+	public static void apply(BitmapFactory.Options options, int sourceWidth, int sourceHeight, ImageParams params, boolean allowScaling)
+	{
+		options.inSampleSize = 1;
+		if (sourceWidth <= 0 || sourceHeight <= 0 || params.width <= 0 || params.height <= 0)
+			return;
+
+		// Size of the whole image when it is displayed
+		final int targetWidth;
+		final int targetHeight;
+		if (params.scaleType == ScaleType.FIT_XY)
+		{
+			targetWidth = params.width;
+			targetHeight = params.height;
+		}
+		else
+		{
+			final float scale = getScale(sourceWidth, sourceHeight, params);
+			targetWidth = Math.max(1, (int) Math.ceil(sourceWidth * scale));
+			targetHeight = Math.max(1, (int) Math.ceil(sourceHeight * scale));
+		}
+
+		options.inSampleSize = ImageUtils.calculateInSampleSize(sourceWidth, sourceHeight, targetWidth, targetHeight);
+		if (!allowScaling)
+			return;
+
+		// Scale the rest by the dimension that needs bigger scale, so the other one still covers the target
+		final int sampledWidth = sourceWidth / options.inSampleSize;
+		final int sampledHeight = sourceHeight / options.inSampleSize;
+		final int density;
+		final int targetDensity;
+		if ((long) targetWidth * sampledHeight >= (long) targetHeight * sampledWidth)
+		{
+			density = sampledWidth;
+			targetDensity = targetWidth;
+		}
+		else
+		{
+			density = sampledHeight;
+			targetDensity = targetHeight;
+		}
+
+		// Decoder is only used to scale down
+		if (targetDensity < density)
+		{
+			options.inScaled = true;
+			options.inDensity = density;
+			options.inTargetDensity = targetDensity;
+		}
+	}
+
+	/**
+	 * Picks {@link Config} for decoding. If params don't have {@link ImageParams#bitmapConfig}, {@link Config#RGB_565} is used for formats that
+	 * cannot have transparency (JPEG) and {@link Config#ARGB_8888} for everything else.
+	 * 
+	 * @param params
+	 *            Image params.
+	 * @param in
+	 *            Stream of the image positioned at the beginning. Must support mark. Position is not changed.
+	 * @return Config for {@link BitmapFactory.Options#inPreferredConfig}.
+	 * @throws IOException
+	 */
+	public static Config chooseConfig(ImageParams params, InputStream in) throws IOException
+	{
+		if (params.bitmapConfig != null)
+			return params.bitmapConfig;
+
+		return isOpaqueFormat(in) ? Config.RGB_565 : Config.ARGB_8888;
+	}
+
+	/**
+	 * @return {@code true} if decoder will scale bitmap using density.
+	 */
+	public static boolean isScaling(BitmapFactory.Options options)
+	{
+		return options.inScaled && options.inDensity != 0 && options.inTargetDensity != 0 && options.inDensity != options.inTargetDensity;
+	}
+
+	/**
+	 * Scaled bitmap gets density that was used for scaling. This sets it back to screen density, so bitmap is drawn at its real size.
+	 * 
+	 * @param context
+	 *            Context.
+	 * @param bitmap
+	 *            Decoded bitmap.
+	 * @param options
+	 *            Options that were used for decoding.
+	 */
+	public static void restoreDensity(Context context, Bitmap bitmap, BitmapFactory.Options options)
+	{
+		if (bitmap != null && isScaling(options))
+			bitmap.setDensity(context.getResources().getDisplayMetrics().densityDpi);
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static boolean isOpaqueFormat(InputStream in) throws IOException
+	{
+		final byte[] header = new byte[JPEG_MAGIC.length];
+		in.mark(header.length);
+		try
+		{
+			int offset = 0;
+			int count;
+			while (offset < header.length && (count = in.read(header, offset, header.length - offset)) != -1)
+				offset += count;
+
+			return offset == header.length && Arrays.equals(header, JPEG_MAGIC);
+		}
+		finally
+		{
+			in.reset();
+		}
+	}
+
+	private static float getScale(int sourceWidth, int sourceHeight, ImageParams params)
+	{
+		final float widthScale = (float) params.width / (float) sourceWidth;
+		final float heightScale = (float) params.height / (float) sourceHeight;
+
+		if (params.scaleType == null)
+			return Math.max(widthScale, heightScale);
+
+		switch (params.scaleType)
+		{
+			case CENTER:
+				// Image is not scaled
+				return 1.0f;
+
+			case CENTER_INSIDE:
+				// Image fits inside, but is never scaled up
+				return Math.min(1.0f, Math.min(widthScale, heightScale));
+
+			case CENTER_CROP:
+			case SCALE_AND_CROP_TO_FILL:
+			case NONE:
+			default:
+				// Image covers the whole target
+				return Math.max(widthScale, heightScale);
+		}
+	}
+}
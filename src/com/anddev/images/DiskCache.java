@@ -0,0 +1,1220 @@
+package com.anddev.images;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+import com.anddev.AndDevSettings;
+import com.anddev.BuildConfig;
+
+/**
+ * Size bounded file cache with LRU eviction.
+ * <p>
+ * Each entry can also remember width and height of the image it contains, so decoders don't need to read image bounds again, and {@link Metadata}
+ * of the response it was downloaded from, so it can be revalidated when it gets stale.
+ * </p>
+ * <p>
+ * All entries are recorded in append-only journal, which is read and compacted when cache is opened. Files are written to temporary file first and
+ * only renamed to their final name on {@link Editor#commit()}, so entry is either complete or missing, but never half written.
+ * </p>
+ * <p>
+ * Cache is opened lazily on first access, so it's safe to create it on UI thread.
+ * </p>
+ * <p>
+ * Files of recently read entries are kept open after {@link Snapshot#close()}, so reading hot entries again does not open and look up the file.
+ * </p>
+ * <p>
+ * Optionally, small entries are packed into a single append-only file instead of having a file each (see {@link #setPackedEntryMaxSize(long)}).
+ * Packed entries are read with one positioned read and don't use a file system block each. Space of removed entries is reclaimed when the pack is
+ * compacted.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class DiskCache
+{
+	static final String						JOURNAL_FILE		= "journal";
+	static final String						JOURNAL_FILE_TEMP	= "journal.tmp";
+	static final String						TEMP_FILE_SUFFIX	= ".tmp";
+	static final String						PACK_FILE			= "pack";
+	static final String						PACK_FILE_TEMP		= "pack.tmp";
+	static final String						MAGIC				= "com.anddev.images.DiskCache";
+	static final String						VERSION				= "1";
+
+	private static final String				CLEAN				= "CLEAN";
+	private static final String				REMOVE				= "REMOVE";
+	private static final String				READ				= "READ";
+	/** Written instead of missing ETag, so journal line always has the same number of parts. */
+	private static final String				NO_ETAG				= "-";
+
+	/** Journal is compacted when it has this many redundant lines and more redundant lines than entries. */
+	private static final int				REDUNDANT_OP_COMPACT_THRESHOLD	= 2000;
+	/** Every open file uses a file descriptor, so only a few of them are kept. */
+	private static final int				MAX_OPEN_FILES		= 8;
+	/** Pack is compacted when it has this many bytes of removed entries and they take more than half of it. */
+	private static final long				DEAD_PACK_BYTES_COMPACT_THRESHOLD	= 256 * 1024;
+	/** Packed record starts with key length (short) and entry length (int), followed by key and entry bytes. */
+	private static final int				RECORD_HEADER_SIZE	= 6;
+
+	private final File						directory;
+	private final LinkedHashMap<String, Entry>	entries				= new LinkedHashMap<String, Entry>(0, 0.75f, true);
+	/** Files that are kept open for the next read. Least recently read file is first. */
+	private final LinkedHashMap<Entry, FileInputStream>	openFiles	= new LinkedHashMap<Entry, FileInputStream>();
+	private long							maxSize;
+	private long							size				= 0;
+	private int								redundantOpCount	= 0;
+	private int								tempFileCounter		= 0;
+	private Writer							journalWriter		= null;
+	private long							packedEntryMaxSize	= 0;
+	private RandomAccessFile				packFile			= null;
+	private long							packLength			= 0;
+	/** Bytes of pack that belong to removed or replaced entries. */
+	private long							deadPackBytes		= 0;
+
+	/**
+	 * @param directory
+	 *            Directory for cache files. Cache owns all files in this directory, unknown files are deleted when cache is opened.
+	 * @param maxSize
+	 *            Maximum size of all files in bytes.
+	 */
+	public DiskCache(File directory, long maxSize)
+	{
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Returns file for given key and marks it as recently used.
+	 * 
+	 * @param key
+	 *            Entry key. Must be valid file name without spaces.
+	 * @return File or {@code null} if there is no such entry or entry is packed. Use {@link #open(String)} to read any entry.
+	 */
+	public synchronized File get(String key)
+	{
+		ensureOpen();
+
+		final Entry entry = entries.get(key);
+		if (entry == null || entry.isPacked())
+			return null;
+
+		final File file = getFile(key);
+		if (!file.exists())
+		{
+			// File was removed from outside
+			removeEntry(key);
+			return null;
+		}
+
+		redundantOpCount++;
+		appendToJournal(READ + " " + key, false);
+		return file;
+	}
+
+	/**
+	 * Opens entry for reading and marks it as recently used. If entry was read recently, its file is still open and is reused. Packed entry is read
+	 * from pack right away.
+	 * 
+	 * @param key
+	 *            Entry key.
+	 * @return Snapshot or {@code null} if there is no such entry. Call {@link Snapshot#close()} when done.
+	 */
+	public synchronized Snapshot open(String key)
+	{
+		ensureOpen();
+
+		final Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+
+		if (entry.isPacked())
+		{
+			final byte[] data = readPacked(entry);
+			if (data == null)
+			{
+				removeEntry(key);
+				return null;
+			}
+
+			redundantOpCount++;
+			appendToJournal(READ + " " + key, false);
+			return new Snapshot(entry, data);
+		}
+
+		FileInputStream in = openFiles.remove(entry);
+		if (in == null)
+		{
+			try
+			{
+				in = new FileInputStream(getFile(key));
+			}
+			catch (FileNotFoundException e)
+			{
+				// File was removed from outside
+				removeEntry(key);
+				return null;
+			}
+		}
+
+		redundantOpCount++;
+		appendToJournal(READ + " " + key, false);
+		return new Snapshot(entry, in);
+	}
+
+	/**
+	 * @param key
+	 *            Entry key.
+	 * @return {@code true} if entry exists; {@code false} otherwise.
+	 */
+	public synchronized boolean contains(String key)
+	{
+		ensureOpen();
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * @param key
+	 *            Entry key.
+	 * @return Array of image width and height. Both are {@code 0} if size is unknown.
+	 */
+	public synchronized int[] getImageSize(String key)
+	{
+		ensureOpen();
+
+		final Entry entry = entries.get(key);
+		if (entry == null)
+			return new int[2];
+
+		return new int[] { entry.width, entry.height };
+	}
+
+	/**
+	 * @param key
+	 *            Entry key.
+	 * @return Metadata of the entry or {@code null} if entry does not exist or has no metadata.
+	 */
+	public synchronized Metadata getMetadata(String key)
+	{
+		ensureOpen();
+
+		final Entry entry = entries.get(key);
+		return entry != null ? entry.metadata : null;
+	}
+
+	/**
+	 * Replaces metadata of existing entry without touching its file. Used when server confirms that cached file is still valid.
+	 * 
+	 * @param key
+	 *            Entry key.
+	 * @param metadata
+	 *            New metadata or {@code null}.
+	 */
+	public synchronized void setMetadata(String key, Metadata metadata)
+	{
+		ensureOpen();
+
+		final Entry entry = entries.get(key);
+		if (entry == null)
+			return;
+
+		entry.metadata = metadata;
+		redundantOpCount++;
+		appendToJournal(getCleanLine(entry), true);
+		compactJournalIfNecessary();
+	}
+
+	/**
+	 * Remembers image size for existing entry.
+	 * 
+	 * @param key
+	 *            Entry key.
+	 * @param width
+	 *            Image width.
+	 * @param height
+	 *            Image height.
+	 */
+	public synchronized void setImageSize(String key, int width, int height)
+	{
+		ensureOpen();
+
+		final Entry entry = entries.get(key);
+		if (entry == null || (entry.width == width && entry.height == height))
+			return;
+
+		entry.width = width;
+		entry.height = height;
+		redundantOpCount++;
+		appendToJournal(getCleanLine(entry), false);
+	}
+
+	/**
+	 * @param key
+	 *            Entry key.
+	 * @return File where entry is stored. File might not exist.
+	 */
+	public File getFile(String key)
+	{
+		return new File(directory, key);
+	}
+
+	/**
+	 * Starts writing an entry. Entry will be visible only after {@link Editor#commit()}. Multiple editors for the same key can exist, last commit wins.
+	 * 
+	 * @param key
+	 *            Entry key. Must be valid file name without spaces.
+	 * @return Editor for the entry.
+	 */
+	public synchronized Editor edit(String key)
+	{
+		ensureOpen();
+		return new Editor(key, new File(directory, key + "." + (tempFileCounter++) + TEMP_FILE_SUFFIX));
+	}
+
+	/**
+	 * Removes entry.
+	 * 
+	 * @param key
+	 *            Entry key.
+	 * @return {@code true} if entry was removed; {@code false} otherwise.
+	 */
+	public synchronized boolean remove(String key)
+	{
+		ensureOpen();
+		return removeEntry(key);
+	}
+
+	/**
+	 * Removes all entries. Pack is truncated at once, so only entries that have their own files are deleted one by one.
+	 */
+	public synchronized void clear()
+	{
+		ensureOpen();
+		for (Entry entry : entries.values())
+		{
+			if (!entry.isPacked())
+			{
+				closeOpenFile(entry);
+				getFile(entry.key).delete();
+			}
+		}
+		entries.clear();
+		size = 0;
+
+		try
+		{
+			if (packFile != null)
+				packFile.setLength(0);
+			else
+				new File(directory, PACK_FILE).delete();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		packLength = 0;
+		deadPackBytes = 0;
+
+		rebuildJournal();
+	}
+
+	/**
+	 * @return Size of all entries in bytes.
+	 */
+	public synchronized long size()
+	{
+		ensureOpen();
+		return size;
+	}
+
+	public synchronized long getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * Changes maximum size of cache. If current size is bigger, least recently used entries are removed.
+	 * 
+	 * @param maxSize
+	 *            Maximum size of all files in bytes.
+	 */
+	public synchronized void setMaxSize(long maxSize)
+	{
+		this.maxSize = maxSize;
+		if (journalWriter != null)
+			trimToSize();
+	}
+
+	/**
+	 * Entries that are not bigger than given size are packed into a single file. Only affects entries that are committed after this call.
+	 * 
+	 * @param packedEntryMaxSize
+	 *            Maximum size of packed entry in bytes. Use {@code 0} to give every entry its own file. Default is {@code 0}.
+	 */
+	public synchronized void setPackedEntryMaxSize(long packedEntryMaxSize)
+	{
+		this.packedEntryMaxSize = packedEntryMaxSize;
+	}
+
+	/**
+	 * Writes pending journal lines to disk.
+	 */
+	public synchronized void flush()
+	{
+		if (journalWriter == null)
+			return;
+
+		try
+		{
+			journalWriter.flush();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private synchronized boolean commitEdit(Editor editor)
+	{
+		ensureOpen();
+
+		final File tempFile = editor.tempFile;
+		final long length = tempFile.length();
+		if (length <= 0)
+		{
+			tempFile.delete();
+			return false;
+		}
+
+		final Entry oldEntry = entries.get(editor.key);
+		final Entry entry = new Entry(editor.key, length);
+		if (length <= packedEntryMaxSize)
+		{
+			entry.offset = appendToPack(editor.key, tempFile, length);
+			tempFile.delete();
+			if (!entry.isPacked())
+				return false;
+		}
+		else if (!tempFile.renameTo(getFile(editor.key)))
+		{
+			tempFile.delete();
+			return false;
+		}
+
+		if (oldEntry != null)
+		{
+			size -= oldEntry.length;
+			redundantOpCount++;
+
+			// File of old entry was already replaced by rename
+			if (oldEntry.isPacked() || entry.isPacked())
+				discardEntry(oldEntry);
+			else
+				closeOpenFile(oldEntry);
+		}
+
+		entry.width = editor.width;
+		entry.height = editor.height;
+		entry.metadata = editor.metadata;
+		entries.put(editor.key, entry);
+		size += length;
+		appendToJournal(getCleanLine(entry), true);
+
+		trimToSize();
+		compactJournalIfNecessary();
+		return true;
+	}
+
+	private boolean removeEntry(String key)
+	{
+		final Entry entry = entries.remove(key);
+		if (entry == null)
+			return false;
+
+		discardEntry(entry);
+		size -= entry.length;
+		redundantOpCount++;
+		appendToJournal(REMOVE + " " + key, true);
+		compactPackIfNecessary();
+		return true;
+	}
+
+	private void trimToSize()
+	{
+		final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (size > maxSize && iterator.hasNext())
+		{
+			final Entry entry = iterator.next().getValue();
+			iterator.remove();
+			discardEntry(entry);
+			size -= entry.length;
+			redundantOpCount++;
+			appendToJournal(REMOVE + " " + entry.key, false);
+
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.d(ImageLoader.TAG, "Evicted from file cache. " + entry.key);
+		}
+		compactPackIfNecessary();
+	}
+
+	/**
+	 * Frees storage of removed or replaced entry: its file is deleted or its bytes in pack are marked as dead.
+	 */
+	private void discardEntry(Entry entry)
+	{
+		if (entry.isPacked())
+		{
+			deadPackBytes += getRecordSize(entry);
+		}
+		else
+		{
+			closeOpenFile(entry);
+			getFile(entry.key).delete();
+		}
+	}
+
+	/**
+	 * Keeps file of closed snapshot open for the next read. File is closed if entry was replaced or removed while it was read.
+	 */
+	private synchronized void releaseSnapshot(Snapshot snapshot)
+	{
+		final Entry entry = snapshot.entry;
+		if (entries.get(entry.key) != entry || openFiles.containsKey(entry))
+		{
+			closeFile(snapshot.in);
+			return;
+		}
+
+		openFiles.put(entry, snapshot.in);
+		if (openFiles.size() > MAX_OPEN_FILES)
+		{
+			final Iterator<FileInputStream> iterator = openFiles.values().iterator();
+			closeFile(iterator.next());
+			iterator.remove();
+		}
+	}
+
+	private void closeOpenFile(Entry entry)
+	{
+		final FileInputStream in = openFiles.remove(entry);
+		if (in != null)
+			closeFile(in);
+	}
+
+	private static void closeFile(Closeable closeable)
+	{
+		try
+		{
+			closeable.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private void ensureOpen()
+	{
+		if (journalWriter != null)
+			return;
+
+		if (!directory.exists())
+			directory.mkdirs();
+
+		final File journalFile = new File(directory, JOURNAL_FILE);
+		if (journalFile.exists())
+		{
+			try
+			{
+				readJournal(journalFile);
+			}
+			catch (IOException e)
+			{
+				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+					Log.w(ImageLoader.TAG, "Failed reading file cache journal. " + e.getMessage());
+				entries.clear();
+			}
+		}
+
+		// Remove files that are not in journal and entries that don't have files. Length differs if the last line was cut off.
+		packLength = new File(directory, PACK_FILE).length();
+		long livePackBytes = 0;
+		size = 0;
+		for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();)
+		{
+			final Entry entry = iterator.next();
+			if (entry.isPacked() ? entry.offset + getRecordSize(entry) <= packLength : getFile(entry.key).length() == entry.length)
+			{
+				size += entry.length;
+				if (entry.isPacked())
+					livePackBytes += getRecordSize(entry);
+			}
+			else
+			{
+				iterator.remove();
+			}
+		}
+		deadPackBytes = Math.max(0, packLength - livePackBytes);
+		deleteUnknownFiles();
+
+		rebuildJournal();
+		trimToSize();
+	}
+
+	private void readJournal(File journalFile) throws IOException
+	{
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "US-ASCII"));
+		try
+		{
+			final String header = reader.readLine();
+			if (!(MAGIC + " " + VERSION).equals(header))
+				throw new IOException("Unexpected journal header: " + header);
+
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				final String[] parts = line.split(" ");
+				if (parts.length < 2)
+					break; // Last line was not fully written
+
+				final String key = parts[1];
+				if (CLEAN.equals(parts[0]) && parts.length >= 3)
+				{
+					try
+					{
+						final Entry entry = new Entry(key, Long.parseLong(parts[2]));
+						if (parts.length >= 5)
+						{
+							entry.width = Integer.parseInt(parts[3]);
+							entry.height = Integer.parseInt(parts[4]);
+						}
+						if (parts.length >= 8)
+						{
+							final String etag = NO_ETAG.equals(parts[7]) ? null : parts[7];
+							final Metadata metadata = new Metadata(etag, Long.parseLong(parts[6]), Long.parseLong(parts[5]));
+							if (etag != null || metadata.lastModified > 0 || metadata.expires > 0)
+								entry.metadata = metadata;
+						}
+						if (parts.length >= 9)
+							entry.offset = Long.parseLong(parts[8]);
+						entries.put(key, entry);
+					}
+					catch (NumberFormatException e)
+					{
+						break;
+					}
+				}
+				else if (REMOVE.equals(parts[0]))
+				{
+					entries.remove(key);
+				}
+				else if (READ.equals(parts[0]))
+				{
+					// Moves entry to the end of access order
+					entries.get(key);
+				}
+				else
+				{
+					break;
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private void deleteUnknownFiles()
+	{
+		final File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files)
+		{
+			final String name = file.getName();
+			if (file.isFile() && !name.equals(JOURNAL_FILE) && !name.equals(PACK_FILE) && !entries.containsKey(name))
+				file.delete();
+		}
+	}
+
+	/**
+	 * Writes new journal that only contains current entries.
+	 */
+	private void rebuildJournal()
+	{
+		closeJournal();
+
+		final File journalFile = new File(directory, JOURNAL_FILE);
+		final File journalFileTemp = new File(directory, JOURNAL_FILE_TEMP);
+		try
+		{
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFileTemp), "US-ASCII"));
+			try
+			{
+				writer.write(MAGIC + " " + VERSION + "\n");
+				for (Entry entry : entries.values())
+					writer.write(getCleanLine(entry) + "\n");
+			}
+			finally
+			{
+				writer.close();
+			}
+
+			if (!journalFileTemp.renameTo(journalFile))
+				throw new IOException("Failed renaming journal.");
+
+			journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), "US-ASCII"));
+			redundantOpCount = 0;
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.w(ImageLoader.TAG, "Failed writing file cache journal. " + e.getMessage());
+			journalWriter = new NullWriter();
+		}
+	}
+
+	private String getCleanLine(Entry entry)
+	{
+		final String line = CLEAN + " " + entry.key + " " + entry.length + " " + entry.width + " " + entry.height;
+		final Metadata metadata = entry.metadata;
+		if (metadata == null && !entry.isPacked())
+			return line;
+
+		// Offset comes after metadata, so packed entry without metadata gets empty one
+		final String metadataLine = metadata != null ? line + " " + metadata.expires + " " + metadata.lastModified + " "
+				+ (metadata.etag != null ? metadata.etag : NO_ETAG) : line + " 0 0 " + NO_ETAG;
+		return entry.isPacked() ? metadataLine + " " + entry.offset : metadataLine;
+	}
+
+	/**
+	 * Appends entry to pack.
+	 * 
+	 * @return Offset of the record in pack or {@code -1} if it could not be written.
+	 */
+	private long appendToPack(String key, File file, long length)
+	{
+		final byte[] keyBytes = getKeyBytes(key);
+		final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + keyBytes.length + (int) length);
+		buffer.putShort((short) keyBytes.length).putInt((int) length).put(keyBytes);
+
+		FileInputStream in = null;
+		try
+		{
+			in = new FileInputStream(file);
+			readFully(in.getChannel(), buffer, 0);
+			buffer.flip();
+
+			// Record that was written partially is overwritten by the next one
+			final long offset = packLength;
+			writeFully(getPackChannel(), buffer, offset);
+			packLength += buffer.limit();
+			return offset;
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.w(ImageLoader.TAG, "Failed writing to file cache pack. " + e.getMessage());
+			return -1;
+		}
+		finally
+		{
+			if (in != null)
+				closeFile(in);
+		}
+	}
+
+	/**
+	 * Reads whole record of packed entry with a single positioned read.
+	 * 
+	 * @return Record or {@code null} if it does not belong to this entry.
+	 */
+	private byte[] readPacked(Entry entry)
+	{
+		final byte[] keyBytes = getKeyBytes(entry.key);
+		final byte[] record = new byte[(int) getRecordSize(entry)];
+		try
+		{
+			final ByteBuffer buffer = ByteBuffer.wrap(record);
+			readFully(getPackChannel(), buffer, entry.offset);
+			buffer.flip();
+
+			// Journal might point to old offsets if app was killed while pack was compacted
+			if (buffer.getShort() != keyBytes.length || buffer.getInt() != entry.length)
+				return null;
+			final byte[] recordKey = new byte[keyBytes.length];
+			buffer.get(recordKey);
+			return Arrays.equals(recordKey, keyBytes) ? record : null;
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.w(ImageLoader.TAG, "Failed reading file cache pack. " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void compactPackIfNecessary()
+	{
+		if (deadPackBytes >= DEAD_PACK_BYTES_COMPACT_THRESHOLD && deadPackBytes * 2 > packLength)
+			compactPack();
+	}
+
+	/**
+	 * Copies records of current entries to new pack, replaces old pack with it and writes new offsets to journal. If app is killed before journal
+	 * is written, records are not found at old offsets and only those entries are lost.
+	 */
+	private void compactPack()
+	{
+		final File tempFile = new File(directory, PACK_FILE_TEMP);
+		final Map<Entry, Long> offsets = new HashMap<Entry, Long>();
+		RandomAccessFile newPackFile = null;
+		try
+		{
+			final FileChannel channel = getPackChannel();
+			newPackFile = new RandomAccessFile(tempFile, "rw");
+			newPackFile.setLength(0);
+			final FileChannel newChannel = newPackFile.getChannel();
+
+			long newLength = 0;
+			for (Entry entry : entries.values())
+			{
+				if (!entry.isPacked())
+					continue;
+
+				final long recordSize = getRecordSize(entry);
+				long copied = 0;
+				while (copied < recordSize)
+				{
+					final long count = channel.transferTo(entry.offset + copied, recordSize - copied, newChannel);
+					if (count <= 0)
+						throw new EOFException("Pack is shorter than journal.");
+					copied += count;
+				}
+				offsets.put(entry, newLength);
+				newLength += recordSize;
+			}
+
+			if (!tempFile.renameTo(new File(directory, PACK_FILE)))
+				throw new IOException("Failed renaming pack.");
+
+			closeFile(packFile);
+			packFile = newPackFile;
+			newPackFile = null;
+			for (Map.Entry<Entry, Long> offset : offsets.entrySet())
+				offset.getKey().offset = offset.getValue();
+			packLength = newLength;
+			deadPackBytes = 0;
+			rebuildJournal();
+
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.d(ImageLoader.TAG, "Compacted file cache pack. Size: " + packLength);
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.w(ImageLoader.TAG, "Failed compacting file cache pack. " + e.getMessage());
+			if (newPackFile != null)
+				closeFile(newPackFile);
+			tempFile.delete();
+		}
+	}
+
+	private FileChannel getPackChannel() throws IOException
+	{
+		if (packFile == null)
+			packFile = new RandomAccessFile(new File(directory, PACK_FILE), "rw");
+		return packFile.getChannel();
+	}
+
+	private static long getRecordSize(Entry entry)
+	{
+		return RECORD_HEADER_SIZE + entry.key.length() + entry.length;
+	}
+
+	/**
+	 * Keys are MD5 hex strings, so every char is one ASCII byte. {@link String#getBytes(java.nio.charset.Charset)} is only available from API 9.
+	 */
+	private static byte[] getKeyBytes(String key)
+	{
+		final int length = key.length();
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte) key.charAt(i);
+		return bytes;
+	}
+
+	/**
+	 * Fills remaining part of buffer with bytes that start at given file position.
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			final int count = channel.read(buffer, position);
+			if (count < 0)
+				throw new EOFException("Unexpected end of file.");
+			position += count;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private void compactJournalIfNecessary()
+	{
+		if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size())
+			rebuildJournal();
+	}
+
+	private void appendToJournal(String line, boolean flush)
+	{
+		try
+		{
+			journalWriter.write(line + "\n");
+			if (flush)
+				journalWriter.flush();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private void closeJournal()
+	{
+		if (journalWriter == null)
+			return;
+
+		try
+		{
+			journalWriter.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		journalWriter = null;
+	}
+
+	// Editor
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Writes a single entry. Write to {@link #getFile()} or {@link #newOutputStream()} and then call {@link #commit()} or {@link #abort()}.
+	 */
+	public class Editor
+	{
+		private final String	key;
+		private final File		tempFile;
+		private boolean			done		= false;
+		private int				width		= 0;
+		private int				height		= 0;
+		private Metadata		metadata	= null;
+
+		private Editor(String key, File tempFile)
+		{
+			this.key = key;
+			this.tempFile = tempFile;
+		}
+
+		/**
+		 * @return Temporary file for this edit.
+		 */
+		public File getFile()
+		{
+			return tempFile;
+		}
+
+		/**
+		 * Remembers image size together with the entry.
+		 */
+		public void setImageSize(int width, int height)
+		{
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * Remembers metadata of the response together with the entry.
+		 */
+		public void setMetadata(Metadata metadata)
+		{
+			this.metadata = metadata;
+		}
+
+		public OutputStream newOutputStream() throws FileNotFoundException
+		{
+			return new FileOutputStream(tempFile, false);
+		}
+
+		/**
+		 * Publishes written file. All streams must be closed before this call.
+		 * 
+		 * @return {@code true} if entry was stored; {@code false} otherwise.
+		 */
+		public boolean commit()
+		{
+			if (done)
+				return false;
+
+			done = true;
+			return commitEdit(this);
+		}
+
+		/**
+		 * Discards written file.
+		 */
+		public void abort()
+		{
+			if (done)
+				return;
+
+			done = true;
+			tempFile.delete();
+		}
+	}
+
+	// Snapshot
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Open file of an entry or bytes of packed entry. Content stays the same even if entry is replaced while it is read. Call {@link #close()}
+	 * when done instead of closing the stream, so the file can be kept open for the next read.
+	 */
+	public class Snapshot implements Closeable
+	{
+		private final Entry				entry;
+		private final FileInputStream	in;
+		private final byte[]			record;
+		private boolean					closed	= false;
+
+		private Snapshot(Entry entry, FileInputStream in)
+		{
+			this.entry = entry;
+			this.in = in;
+			this.record = null;
+		}
+
+		private Snapshot(Entry entry, byte[] record)
+		{
+			this.entry = entry;
+			this.in = null;
+			this.record = record;
+		}
+
+		/**
+		 * @return {@code true} if entry is packed and its bytes are in {@link #getData()}; {@code false} if it has its own file.
+		 */
+		public boolean isPacked()
+		{
+			return record != null;
+		}
+
+		/**
+		 * @return Open file or {@code null} if entry is packed. Position is wherever previous reader left it.
+		 */
+		public FileInputStream getInputStream()
+		{
+			return in;
+		}
+
+		/**
+		 * @return Array that contains bytes of packed entry starting at {@link #getDataOffset()} or {@code null} if entry is not packed.
+		 */
+		public byte[] getData()
+		{
+			return record;
+		}
+
+		public int getDataOffset()
+		{
+			return record != null ? record.length - (int) entry.length : 0;
+		}
+
+		/**
+		 * @return Size of entry in bytes.
+		 */
+		public long getLength()
+		{
+			return entry.length;
+		}
+
+		/**
+		 * @return Array of image width and height. Both are {@code 0} if size is unknown.
+		 */
+		public int[] getImageSize()
+		{
+			synchronized (DiskCache.this)
+			{
+				return new int[] { entry.width, entry.height };
+			}
+		}
+
+		@Override
+		public void close()
+		{
+			if (closed)
+				return;
+
+			closed = true;
+			if (in != null)
+				releaseSnapshot(this);
+		}
+	}
+
+	// Entry
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class Entry
+	{
+		public final String	key;
+		public final long	length;
+		public int			width		= 0;
+		public int			height		= 0;
+		public Metadata		metadata	= null;
+		/** Offset of the record in pack or {@code -1} if entry has its own file. */
+		public long			offset		= -1;
+
+		public Entry(String key, long length)
+		{
+			this.key = key;
+			this.length = length;
+		}
+
+		public boolean isPacked()
+		{
+			return offset >= 0;
+		}
+	}
+
+	// Metadata
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * HTTP validators and freshness of the response that entry was downloaded from.
+	 */
+	public static class Metadata
+	{
+		/** ETag of the response or {@code null}. */
+		public final String	etag;
+		/** Last-Modified of the response in milliseconds since epoch or {@code 0} if unknown. */
+		public final long	lastModified;
+		/** Time in milliseconds since epoch after which entry should be revalidated or {@code 0} if it never gets stale. */
+		public final long	expires;
+
+		/**
+		 * @param etag
+		 *            ETag of the response or {@code null}. ETag that cannot be stored in journal is ignored.
+		 * @param lastModified
+		 *            Last-Modified of the response in milliseconds since epoch or {@code 0}.
+		 * @param expires
+		 *            Time in milliseconds since epoch after which entry is stale or {@code 0}.
+		 */
+		public Metadata(String etag, long lastModified, long expires)
+		{
+			this.etag = isValidETag(etag) ? etag : null;
+			this.lastModified = Math.max(0, lastModified);
+			this.expires = Math.max(0, expires);
+		}
+
+		/**
+		 * @return {@code true} if entry can be revalidated with conditional request.
+		 */
+		public boolean hasValidators()
+		{
+			return etag != null || lastModified > 0;
+		}
+
+		/**
+		 * @return {@code true} if entry should be revalidated.
+		 */
+		public boolean isStale()
+		{
+			return expires > 0 && System.currentTimeMillis() >= expires;
+		}
+
+		/**
+		 * @return {@code true} if both describe the same version of the resource.
+		 */
+		public boolean isSameVersion(Metadata other)
+		{
+			if (other == null)
+				return false;
+
+			if (etag != null || other.etag != null)
+				return etag != null && etag.equals(other.etag);
+
+			return lastModified == other.lastModified;
+		}
+
+		private static boolean isValidETag(String etag)
+		{
+			if (etag == null || etag.length() == 0 || NO_ETAG.equals(etag))
+				return false;
+
+			// Journal is US-ASCII and parts are separated by spaces
+			for (int i = 0; i < etag.length(); i++)
+			{
+				final char c = etag.charAt(i);
+				if (c <= ' ' || c > '~')
+					return false;
+			}
+			return true;
+		}
+	}
+
+	// NullWriter
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Used when journal cannot be written. Cache still works, but will be rebuilt from scratch next time.
+	 */
+	private static class NullWriter extends Writer
+	{
+		@Override
+		public void write(char[] buf, int offset, int count)
+		{
+		}
+
+		@Override
+		public void flush()
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
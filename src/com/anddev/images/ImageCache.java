@@ -1,13 +1,23 @@
 package com.anddev.images;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import android.annotation.TargetApi;
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.os.Environment;
@@ -16,22 +26,43 @@ import android.util.Log;
 
 import com.anddev.AndDevSettings;
 import com.anddev.BuildConfig;
-import com.anddev.images.info.FileBitmapInfo;
+import com.anddev.images.info.FileBitmapInfo.FileBitmapFetcher;
 import com.anddev.utils.APIUtils;
 
 public class ImageCache
 {
-	private static final String				PRE_FROYO_EXTERNAL_PATH		= File.separator + "Android" + File.separator + "data" + File.separator
-																						+ ImageCache.class.getPackage().getName() + File.separator + "cache";
+	private static final String						PRE_FROYO_EXTERNAL_PATH				= File.separator + "Android" + File.separator + "data"
+																						+ File.separator + ImageCache.class.getPackage().getName()
+																						+ File.separator + "cache";
 
-	protected static final CompressFormat	DEFAULT_COMPRESS_FORMAT		= CompressFormat.PNG;
-	protected static final int				DEFAULT_COMPRESS_QUALITY	= 90;
+	protected static final CompressFormat			DEFAULT_COMPRESS_FORMAT				= CompressFormat.PNG;
+	protected static final int						DEFAULT_COMPRESS_QUALITY			= 90;
+	protected static final int						IO_BUFFER_SIZE						= 8 * 1024;
+	protected static final long						DEFAULT_FILE_CACHE_SIZE				= 20 * 1024 * 1024;
+	protected static final String					FILE_CACHE_DIR_NAME					= "images";
+	protected static final long						DEFAULT_PROCESSED_FILE_CACHE_SIZE	= 10 * 1024 * 1024;
+	protected static final String					PROCESSED_FILE_CACHE_DIR_NAME		= "processed_images";
 
-	private static ImageCache				instance					= null;
+	private static final Pattern					LEGACY_FILE_NAME_PATTERN			= Pattern.compile("[0-9a-f]{32}");
 
-	private Context							context;
-	private LruCache<String, Bitmap>		memoryCache;
-	private File							fileCacheDir;
+	private static ImageCache						instance							= null;
+
+	private Context									context;
+	private LruCache<ImageKey, Bitmap>				memoryCache;
+	/** Bitmaps that are displayed right now. They are not in {@link #memoryCache}, so they don't count towards its size and are never evicted. */
+	private final Map<ImageKey, PinnedBitmap>		pinnedBitmaps						= new HashMap<ImageKey, PinnedBitmap>();
+	/** Bitmaps that were evicted from {@link #memoryCache}, but might still be used somewhere. */
+	private final Map<ImageKey, EvictedReference>	evictedBitmaps						= new HashMap<ImageKey, EvictedReference>();
+	private final ReferenceQueue<Bitmap>			evictedQueue						= new ReferenceQueue<Bitmap>();
+	private File									fileCacheDir;
+	private DiskCache								diskCache;
+	private DiskCache								processedDiskCache;
+	private volatile boolean						reuseEvictedBitmaps					= false;
+	private volatile boolean						compressOpaqueAsJpeg				= false;
+	/** Set while memory is trimmed, so evicted bitmaps are freed instead of going to {@link BitmapPool}. */
+	private volatile boolean						trimming							= false;
+	/** Releases pins that are not needed anymore before memory is trimmed. Set by {@link ImageLoader}. */
+	private volatile Runnable						pinReleaser							= null;
 
 	public static ImageCache getInstance(Context context)
 	{
@@ -45,18 +76,23 @@ public class ImageCache
 		this.context = context.getApplicationContext();
 		final int memClass = ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
 		final int cacheSize = 1024 * 1024 * memClass / 6;
-		memoryCache = new LruCache<String, Bitmap>(cacheSize)
+		memoryCache = new LruCache<ImageKey, Bitmap>(cacheSize)
 		{
-			@TargetApi(12)
 			@Override
-			protected int sizeOf(String key, Bitmap bitmap)
+			protected int sizeOf(ImageKey key, Bitmap bitmap)
 			{
-				if (APIUtils.SUPPORTS_HONEYCOMB_MR1)
-				{
-					return bitmap.getByteCount();
-				}
-				// Pre HC-MR1
-				return bitmap.getRowBytes() * bitmap.getHeight();
+				return BitmapPool.getBitmapSize(bitmap);
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, ImageKey key, Bitmap oldValue, Bitmap newValue)
+			{
+				if (!evicted)
+					return;
+
+				// Bitmap is remembered if it was not reused, because it can still be displayed in views that don't pin it
+				if (!reuseEvictedBitmaps || trimming || !BitmapPool.getInstance().put(oldValue))
+					rememberEvicted(key, oldValue);
 			}
 		};
 
@@ -64,87 +100,582 @@ public class ImageCache
 		final File externalCacheDir = APIUtils.SUPPORTS_FROYO ? context.getExternalCacheDir() : new File(Environment.getExternalStorageDirectory()
 						.getAbsolutePath() + PRE_FROYO_EXTERNAL_PATH);
 		final File internalCacheDir = context.getCacheDir();
+		final File rootCacheDir;
+		final File otherRootCacheDir;
 		if (Environment.MEDIA_MOUNTED.equals(state) && !Environment.MEDIA_MOUNTED_READ_ONLY.equals(state) && checkWriteExternalPermission())
-			fileCacheDir = externalCacheDir;
+		{
+			rootCacheDir = externalCacheDir;
+			otherRootCacheDir = internalCacheDir;
+		}
 		else
-			fileCacheDir = internalCacheDir;
+		{
+			rootCacheDir = internalCacheDir;
+			otherRootCacheDir = externalCacheDir;
+		}
+		fileCacheDir = new File(rootCacheDir, FILE_CACHE_DIR_NAME);
 
 		// We have to make sure cache dir exists
 		if (!fileCacheDir.exists())
 			fileCacheDir.mkdirs();
 
 		// Try to clean other cache directory. We need that because external cache directory can be removed and we might need to switch between them.
-		if (fileCacheDir.equals(internalCacheDir))
-			cleanFilePath(externalCacheDir);
-		else
-			cleanFilePath(internalCacheDir);
+		if (otherRootCacheDir != null)
+		{
+			cleanFilePath(otherRootCacheDir);
+			cleanFilePath(new File(otherRootCacheDir, FILE_CACHE_DIR_NAME));
+			cleanFilePath(new File(otherRootCacheDir, PROCESSED_FILE_CACHE_DIR_NAME));
+		}
+
+		// Files that were cached before file cache had a size limit
+		cleanLegacyFiles(rootCacheDir);
+
+		diskCache = new DiskCache(fileCacheDir, DEFAULT_FILE_CACHE_SIZE);
+
+		// Processed bitmaps have their own limit, so small thumbnails are not evicted by big originals
+		processedDiskCache = new DiskCache(new File(rootCacheDir, PROCESSED_FILE_CACHE_DIR_NAME), DEFAULT_PROCESSED_FILE_CACHE_SIZE);
+
+		if (APIUtils.SUPPORTS_ICS)
+			registerTrimMemoryCallbacks();
 	}
 
 	// Public methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
 	/**
-	 * Tries to get image from memory cache.
+	 * Tries to get image from memory cache. Pinned bitmaps and evicted bitmaps that are still alive are returned too. Evicted bitmap is put back to
+	 * memory cache.
 	 * 
-	 * @param memoryName
+	 * @param memoryKey
 	 *            Key for bitmap in memory cache.
 	 * @return Bitmap from memory cache or {@code null}.
 	 */
-	public Bitmap getFromMemory(final String memoryName)
+	public synchronized Bitmap getFromMemory(final ImageKey memoryKey)
 	{
-		return memoryCache.get(memoryName);
+		final PinnedBitmap pinnedBitmap = pinnedBitmaps.get(memoryKey);
+		if (pinnedBitmap != null)
+			return pinnedBitmap.bitmap;
+
+		Bitmap bitmap = memoryCache.get(memoryKey);
+		if (bitmap != null)
+			return bitmap;
+
+		bitmap = takeEvicted(memoryKey);
+		if (bitmap != null)
+			memoryCache.put(memoryKey, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Pins bitmap that is displayed. Pinned bitmap is removed from memory cache, so it does not count towards its size and can't be evicted while
+	 * it is visible. Every call must be matched with {@link #unpin(ImageKey)}.
+	 * 
+	 * @param memoryKey
+	 *            Key for bitmap in memory cache.
+	 * @param bitmap
+	 *            Bitmap that is displayed.
+	 */
+	public synchronized void pin(final ImageKey memoryKey, final Bitmap bitmap)
+	{
+		PinnedBitmap pinnedBitmap = pinnedBitmaps.get(memoryKey);
+		if (pinnedBitmap == null)
+		{
+			pinnedBitmap = new PinnedBitmap(bitmap);
+			pinnedBitmaps.put(memoryKey, pinnedBitmap);
+			memoryCache.remove(memoryKey);
+			evictedBitmaps.remove(memoryKey);
+		}
+		pinnedBitmap.count++;
+	}
+
+	/**
+	 * Releases bitmap that was pinned with {@link #pin(ImageKey, Bitmap)}. When it is not pinned anymore, it goes back to memory cache as the most
+	 * recently used bitmap.
+	 * 
+	 * @param memoryKey
+	 *            Key for bitmap in memory cache.
+	 */
+	public synchronized void unpin(final ImageKey memoryKey)
+	{
+		final PinnedBitmap pinnedBitmap = pinnedBitmaps.get(memoryKey);
+		if (pinnedBitmap == null || --pinnedBitmap.count > 0)
+			return;
+
+		pinnedBitmaps.remove(memoryKey);
+		if (!pinnedBitmap.bitmap.isRecycled())
+			memoryCache.put(memoryKey, pinnedBitmap.bitmap);
 	}
 
 	public Bitmap getFromFile(ImageToLoad imageToLoad)
 	{
-		final File bitmapFile = new File(fileCacheDir, imageToLoad.fileName);
-		return new FileBitmapInfo(bitmapFile.getAbsolutePath()).getBitmapFetcher(context).getBitmap(imageToLoad);
+		return decodeFromCache(diskCache, imageToLoad.getFileName(), imageToLoad);
+	}
+
+	/**
+	 * Decodes file from file cache that is stored under different name, for example other variant of the same image.
+	 * 
+	 * @param fileName
+	 *            Key for file in file cache.
+	 * @param imageToLoad
+	 *            Image that is loaded. Its params are used for decoding.
+	 * @return Bitmap or {@code null}.
+	 */
+	public Bitmap getFromFile(String fileName, ImageToLoad imageToLoad)
+	{
+		return decodeFromCache(diskCache, fileName, imageToLoad);
+	}
+
+	/**
+	 * Tries to get processed bitmap from file cache of processed bitmaps. These files already have the size they are displayed at, so they are
+	 * decoded without sampling and don't need processing.
+	 * 
+	 * @param imageToLoad
+	 *            Image that is loaded.
+	 * @return Processed bitmap or {@code null}.
+	 * @see ImageParams#useProcessedFileCache
+	 */
+	public Bitmap getProcessedFromFile(ImageToLoad imageToLoad)
+	{
+		final String memoryName = imageToLoad.getMemoryName();
+
+		// Processed file is outdated if original was downloaded again after it was made
+		final DiskCache.Metadata metadata = processedDiskCache.getMetadata(memoryName);
+		final DiskCache.Metadata sourceMetadata = diskCache.getMetadata(imageToLoad.getFileName());
+		if (metadata != null && sourceMetadata != null && !metadata.isSameVersion(sourceMetadata))
+		{
+			processedDiskCache.remove(memoryName);
+			return null;
+		}
+
+		return decodeFromCache(processedDiskCache, memoryName, imageToLoad);
 	}
 
 	public File getFile(final String fileName)
 	{
-		return new File(fileCacheDir, fileName);
+		return diskCache.getFile(fileName);
 	}
 
-	public boolean putToMemory(final String memoryName, final Bitmap bitmap)
+	/**
+	 * @param fileName
+	 *            Key for file in file cache.
+	 * @return Cached file or {@code null} if it's not in file cache or it is packed (see {@link #setPackedFileMaxSize(long)}).
+	 */
+	public File getCachedFile(final String fileName)
 	{
-		if (memoryCache.get(memoryName) == null)
+		return diskCache.get(fileName);
+	}
+
+	/**
+	 * @param fileName
+	 *            Key for file in file cache.
+	 * @return {@code true} if file is in file cache, packed or not; {@code false} otherwise.
+	 */
+	public boolean containsFile(final String fileName)
+	{
+		return diskCache.contains(fileName);
+	}
+
+	/**
+	 * Starts writing raw file to file cache. Use it to store original bytes of the image, so they don't need to be decoded and compressed again.
+	 * 
+	 * @param fileName
+	 *            Key for file in file cache.
+	 * @return Editor. Call {@link DiskCache.Editor#commit()} or {@link DiskCache.Editor#abort()} when done.
+	 */
+	public DiskCache.Editor editFile(final String fileName)
+	{
+		return diskCache.edit(fileName);
+	}
+
+	/**
+	 * @param fileName
+	 *            Key for file in file cache.
+	 * @return Metadata of the response that file was downloaded from or {@code null}.
+	 */
+	public DiskCache.Metadata getFileMetadata(final String fileName)
+	{
+		return diskCache.getMetadata(fileName);
+	}
+
+	/**
+	 * Replaces metadata of file in file cache. Used when server confirms that cached file is still valid.
+	 * 
+	 * @param fileName
+	 *            Key for file in file cache.
+	 * @param metadata
+	 *            New metadata.
+	 */
+	public void setFileMetadata(final String fileName, final DiskCache.Metadata metadata)
+	{
+		diskCache.setMetadata(fileName, metadata);
+	}
+
+	public synchronized boolean putToMemory(final ImageKey memoryKey, final Bitmap bitmap)
+	{
+		if (!pinnedBitmaps.containsKey(memoryKey) && memoryCache.get(memoryKey) == null)
 		{
-			memoryCache.put(memoryName, bitmap);
+			memoryCache.put(memoryKey, bitmap);
 			return true;
 		}
 
 		return false;
 	}
 
+	/**
+	 * Removes bitmap from memory cache, so it's loaded again next time. Pinned bitmap is not removed.
+	 * 
+	 * @param memoryKey
+	 *            Key for bitmap in memory cache.
+	 */
+	public synchronized void removeFromMemory(final ImageKey memoryKey)
+	{
+		memoryCache.remove(memoryKey);
+		evictedBitmaps.remove(memoryKey);
+	}
+
 	public boolean putToFile(final String fileName, final Bitmap bitmap)
 	{
-		File bitmapFile = new File(fileCacheDir, fileName);
-		if (!bitmapFile.exists())
+		return putToFile(fileName, bitmap, null);
+	}
+
+	/**
+	 * Compresses bitmap to file cache. Writing stops as soon as signal is cancelled and partially written file is removed.
+	 * 
+	 * @param fileName
+	 *            Key for file in file cache.
+	 * @param bitmap
+	 *            Bitmap to store.
+	 * @param cancelSignal
+	 *            Signal of the work that stores bitmap. Can be {@code null}.
+	 * @return {@code true} if bitmap was stored; {@code false} otherwise.
+	 */
+	public boolean putToFile(final String fileName, final Bitmap bitmap, final CancelSignal cancelSignal)
+	{
+		return compressToFile(diskCache, fileName, bitmap, null, cancelSignal);
+	}
+
+	/**
+	 * Compresses processed bitmap to file cache of processed bitmaps under {@link ImageToLoad#getMemoryName()}. Metadata of the original is stored
+	 * too, so processed file is not used after original changes.
+	 * 
+	 * @param imageToLoad
+	 *            Image that was loaded.
+	 * @param bitmap
+	 *            Processed bitmap.
+	 * @param cancelSignal
+	 *            Signal of the work that stores bitmap. Can be {@code null}.
+	 * @return {@code true} if bitmap was stored; {@code false} otherwise.
+	 * @see ImageParams#useProcessedFileCache
+	 */
+	public boolean putProcessedToFile(final ImageToLoad imageToLoad, final Bitmap bitmap, final CancelSignal cancelSignal)
+	{
+		final DiskCache.Metadata sourceMetadata = diskCache.getMetadata(imageToLoad.getFileName());
+		return compressToFile(processedDiskCache, imageToLoad.getMemoryName(), bitmap, sourceMetadata, cancelSignal);
+	}
+
+	public File getFileCacheDir()
+	{
+		return fileCacheDir;
+	}
+
+	/**
+	 * @return Size of bitmaps in memory cache in bytes. Pinned bitmaps are not included.
+	 */
+	public int getMemoryCacheSize()
+	{
+		return memoryCache.size();
+	}
+
+	public int getMemoryCacheMaxSize()
+	{
+		return memoryCache.maxSize();
+	}
+
+	/**
+	 * @return Size of pinned bitmaps in bytes.
+	 */
+	public synchronized int getPinnedSize()
+	{
+		int size = 0;
+		for (PinnedBitmap pinnedBitmap : pinnedBitmaps.values())
+			size += BitmapPool.getBitmapSize(pinnedBitmap.bitmap);
+		return size;
+	}
+
+	/**
+	 * @return Size of all files in file cache in bytes, including processed bitmaps.
+	 */
+	public long getFileCacheSize()
+	{
+		return diskCache.size() + processedDiskCache.size();
+	}
+
+	/**
+	 * Frees memory depending on how much system needs it. Memory cache shrinks while app is running and is emptied when app goes to background.
+	 * Pinned bitmaps are kept. {@link BitmapPool} is trimmed too. Memory cache grows back as new images are loaded.
+	 * <p>
+	 * Called automatically on Ice Cream Sandwich and above. On older versions call it with {@link ComponentCallbacks2#TRIM_MEMORY_COMPLETE} from
+	 * {@link android.app.Application#onLowMemory()}.
+	 * </p>
+	 * 
+	 * @param level
+	 *            One of {@code ComponentCallbacks2.TRIM_MEMORY_*} levels.
+	 */
+	public void trimMemory(int level)
+	{
+		// Percentage of memory cache and bitmap pool that is kept
+		final int cachePercent;
+		final int poolPercent;
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+		{
+			// Nothing is visible, so everything can be loaded again when app comes back
+			cachePercent = 0;
+			poolPercent = 0;
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
 		{
+			cachePercent = 25;
+			poolPercent = 0;
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+		{
+			cachePercent = 50;
+			poolPercent = 50;
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+		{
+			cachePercent = 75;
+			poolPercent = 75;
+		}
+		else
+		{
+			return;
+		}
+
+		// Bitmaps of views that are gone are not pinned anymore, so they can be trimmed too
+		final Runnable pinReleaser = this.pinReleaser;
+		if (pinReleaser != null)
+			pinReleaser.run();
+
+		synchronized (this)
+		{
+			trimming = true;
 			try
 			{
-				FileOutputStream fos = new FileOutputStream(bitmapFile, false);
-				bitmap.compress(DEFAULT_COMPRESS_FORMAT, DEFAULT_COMPRESS_QUALITY, fos);
-				return true;
+				if (cachePercent == 0)
+					memoryCache.evictAll();
+				else
+					memoryCache.trimToSize((int) ((long) memoryCache.maxSize() * cachePercent / 100));
 			}
-			catch (FileNotFoundException e)
+			finally
+			{
+				trimming = false;
+			}
+		}
+
+		final BitmapPool bitmapPool = BitmapPool.getInstance();
+		bitmapPool.trimToSize((int) ((long) bitmapPool.size() * poolPercent / 100));
+
+		if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+			Log.d(ImageLoader.TAG, "Trimmed memory. Level: " + level + ". Memory cache size: " + memoryCache.size());
+	}
+
+	/**
+	 * If {@code true}, bitmaps evicted from memory cache are given to {@link BitmapPool} and will be reused for new images. Bitmaps that
+	 * {@link ImageLoader} sets to views are pinned while displayed, so they are never evicted. Only enable this if bitmaps that you display yourself
+	 * (from {@link ImageParams#listener}) are not displayed after they are evicted, otherwise visible image might be overwritten. Default
+	 * {@code false}.
+	 * 
+	 * @param reuseEvictedBitmaps
+	 *            {@code true} to reuse evicted bitmaps.
+	 */
+	public void setReuseEvictedBitmaps(boolean reuseEvictedBitmaps)
+	{
+		this.reuseEvictedBitmaps = reuseEvictedBitmaps;
+	}
+
+	/**
+	 * If {@code true}, bitmaps without alpha are compressed to file cache as JPEG instead of PNG. JPEG files are smaller and are decoded as opaque
+	 * again, which needs half the memory, but compression is lossy and changes the format of PNG sources. Default {@code false}.
+	 * 
+	 * @param compressOpaqueAsJpeg
+	 *            {@code true} to store opaque bitmaps as JPEG.
+	 */
+	public void setCompressOpaqueAsJpeg(boolean compressOpaqueAsJpeg)
+	{
+		this.compressOpaqueAsJpeg = compressOpaqueAsJpeg;
+	}
+
+	/**
+	 * Changes maximum size of file cache. Least recently used files are removed when cache gets bigger.
+	 * 
+	 * @param maxSize
+	 *            Maximum size in bytes. Default is {@link #DEFAULT_FILE_CACHE_SIZE}.
+	 */
+	public void setFileCacheSize(long maxSize)
+	{
+		diskCache.setMaxSize(maxSize);
+	}
+
+	/**
+	 * Changes maximum size of file cache of processed bitmaps.
+	 * 
+	 * @param maxSize
+	 *            Maximum size in bytes. Default is {@link #DEFAULT_PROCESSED_FILE_CACHE_SIZE}.
+	 */
+	public void setProcessedFileCacheSize(long maxSize)
+	{
+		processedDiskCache.setMaxSize(maxSize);
+	}
+
+	/**
+	 * Stores small files in a single pack file instead of a file each, including processed bitmaps. Packed files are read without opening a file
+	 * each, take no file system block each and are all removed at once by {@link #clearFileCache()}. Affects files that are stored after this call.
+	 * 
+	 * @param maxSize
+	 *            Maximum size of packed file in bytes. Use {@code 0} to store every file separately. Default is {@code 0}.
+	 */
+	public void setPackedFileMaxSize(long maxSize)
+	{
+		diskCache.setPackedEntryMaxSize(maxSize);
+		processedDiskCache.setPackedEntryMaxSize(maxSize);
+	}
+
+	/**
+	 * Removes all files from file cache, including processed bitmaps.
+	 */
+	public void clearFileCache()
+	{
+		diskCache.clear();
+		processedDiskCache.clear();
+	}
+
+	/**
+	 * @param pinReleaser
+	 *            Called from {@link #trimMemory(int)} before memory cache is trimmed, to release pins of views that don't display their bitmaps.
+	 */
+	void setPinReleaser(Runnable pinReleaser)
+	{
+		this.pinReleaser = pinReleaser;
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Decodes entry of file cache from its open file or, if it is packed, from bytes read from pack. Hot entries keep their files open, so they are
+	 * decoded without opening the file again. Image size is remembered next to the file, so it only has to be decoded once.
+	 */
+	private Bitmap decodeFromCache(DiskCache cache, String key, ImageToLoad imageToLoad)
+	{
+		final DiskCache.Snapshot snapshot = cache.open(key);
+		if (snapshot == null)
+			return null;
+
+		try
+		{
+			final int[] sourceSize = snapshot.getImageSize();
+			final boolean sizeKnown = sourceSize[0] > 0 && sourceSize[1] > 0;
+
+			final FileBitmapFetcher fetcher = FileBitmapFetcher.getInstance(context);
+			final Bitmap bitmap;
+			if (snapshot.isPacked())
+				bitmap = fetcher.decodeByteArray(snapshot.getData(), snapshot.getDataOffset(), (int) snapshot.getLength(), imageToLoad, sourceSize);
+			else
+				bitmap = fetcher.decodeFileDescriptor(snapshot.getInputStream(), imageToLoad, sourceSize);
+			if (bitmap != null && !sizeKnown && sourceSize[0] > 0 && sourceSize[1] > 0)
+				cache.setImageSize(key, sourceSize[0], sourceSize[1]);
+
+			return bitmap;
+		}
+		finally
+		{
+			snapshot.close();
+		}
+	}
+
+	private boolean compressToFile(final DiskCache cache, final String fileName, final Bitmap bitmap, final DiskCache.Metadata metadata,
+			final CancelSignal cancelSignal)
+	{
+		if ((cancelSignal != null && cancelSignal.isCancelled()) || cache.contains(fileName))
+			return false;
+
+		final DiskCache.Editor editor = cache.edit(fileName);
+		OutputStream out = null;
+		try
+		{
+			out = editor.newOutputStream();
+			if (cancelSignal != null)
+				out = new CancellableOutputStream(out, cancelSignal);
+			out = new BufferedOutputStream(out, IO_BUFFER_SIZE);
+			final CompressFormat format = compressOpaqueAsJpeg && !bitmap.hasAlpha() ? CompressFormat.JPEG : DEFAULT_COMPRESS_FORMAT;
+			final boolean compressed = bitmap.compress(format, DEFAULT_COMPRESS_QUALITY, out);
+			out.close();
+			out = null;
+
+			if (compressed && (cancelSignal == null || !cancelSignal.isCancelled()))
+			{
+				editor.setImageSize(bitmap.getWidth(), bitmap.getHeight());
+				editor.setMetadata(metadata);
+				return editor.commit();
+			}
+		}
+		catch (IOException e)
+		{
+			if (cancelSignal == null || !cancelSignal.isCancelled())
 			{
 				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
 					Log.w(ImageLoader.TAG, "Failed saving to file cache. " + fileName);
 				e.printStackTrace();
 			}
 		}
+		finally
+		{
+			if (out != null)
+			{
+				try
+				{
+					out.close();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+
+		editor.abort();
 		return false;
 	}
 
-	public File getFileCacheDir()
+	private void rememberEvicted(ImageKey memoryKey, Bitmap bitmap)
 	{
-		return fileCacheDir;
+		expungeEvicted();
+		evictedBitmaps.put(memoryKey, new EvictedReference(memoryKey, bitmap, evictedQueue));
 	}
 
-	// Private methods
-	// ------------------------------------------------------------------------------------------------------------------------------------
+	private Bitmap takeEvicted(ImageKey memoryKey)
+	{
+		expungeEvicted();
+		final EvictedReference reference = evictedBitmaps.remove(memoryKey);
+		if (reference == null)
+			return null;
+
+		final Bitmap bitmap = reference.get();
+		return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+	}
+
+	/**
+	 * Removes keys of evicted bitmaps that were garbage collected.
+	 */
+	private void expungeEvicted()
+	{
+		EvictedReference reference;
+		while ((reference = (EvictedReference) evictedQueue.poll()) != null)
+		{
+			if (evictedBitmaps.get(reference.memoryKey) == reference)
+				evictedBitmaps.remove(reference.memoryKey);
+		}
+	}
 
 	private void cleanFilePath(File filePathToClean)
 	{
@@ -157,10 +688,120 @@ public class ImageCache
 		}
 	}
 
+	private void cleanLegacyFiles(File filePathToClean)
+	{
+		if (filePathToClean != null)
+		{
+			File[] files = filePathToClean.listFiles();
+			if (files != null)
+				for (File file : files)
+					if (file.isFile() && LEGACY_FILE_NAME_PATTERN.matcher(file.getName()).matches())
+						file.delete();
+		}
+	}
+
+	@TargetApi(14)
+	private void registerTrimMemoryCallbacks()
+	{
+		context.registerComponentCallbacks(new TrimMemoryCallbacks());
+	}
+
 	private boolean checkWriteExternalPermission()
 	{
 		String permission = "android.permission.WRITE_EXTERNAL_STORAGE";
 		int res = context.checkCallingOrSelfPermission(permission);
 		return res == PackageManager.PERMISSION_GRANTED;
 	}
+
+	// PinnedBitmap
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class PinnedBitmap
+	{
+		public final Bitmap	bitmap;
+		public int			count	= 0;
+
+		public PinnedBitmap(Bitmap bitmap)
+		{
+			this.bitmap = bitmap;
+		}
+	}
+
+	// EvictedReference
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class EvictedReference extends WeakReference<Bitmap>
+	{
+		public final ImageKey	memoryKey;
+
+		public EvictedReference(ImageKey memoryKey, Bitmap bitmap, ReferenceQueue<Bitmap> queue)
+		{
+			super(bitmap, queue);
+			this.memoryKey = memoryKey;
+		}
+	}
+
+	// TrimMemoryCallbacks
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Separate class, because {@link ComponentCallbacks2} is not available before Ice Cream Sandwich.
+	 */
+	@TargetApi(14)
+	private class TrimMemoryCallbacks implements ComponentCallbacks2
+	{
+		@Override
+		public void onTrimMemory(int level)
+		{
+			trimMemory(level);
+		}
+
+		@Override
+		public void onLowMemory()
+		{
+			trimMemory(TRIM_MEMORY_COMPLETE);
+		}
+
+		@Override
+		public void onConfigurationChanged(Configuration newConfig)
+		{
+		}
+	}
+
+	// CancellableOutputStream
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Fails writes after signal is cancelled, so {@link Bitmap#compress(CompressFormat, int, OutputStream)} stops early.
+	 */
+	private static class CancellableOutputStream extends FilterOutputStream
+	{
+		private final CancelSignal	cancelSignal;
+
+		public CancellableOutputStream(OutputStream out, CancelSignal cancelSignal)
+		{
+			super(out);
+			this.cancelSignal = cancelSignal;
+		}
+
+		@Override
+		public void write(int oneByte) throws IOException
+		{
+			checkCancelled();
+			out.write(oneByte);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int count) throws IOException
+		{
+			checkCancelled();
+			out.write(buffer, offset, count);
+		}
+
+		private void checkCancelled() throws IOException
+		{
+			if (cancelSignal.isCancelled())
+				throw new InterruptedIOException("Cancelled");
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.anddev.images;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.annotation.TargetApi;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.anddev.utils.APIUtils;
+
+/**
+ * Executes image work for {@link ImageLoader}. Has separate thread pools for file cache reads, network fetches and decoding/processing, so slow
+ * downloads never block images that are already available locally.
+ * <p>
+ * Every pool is ordered by {@link ImageTask#priority} and then LIFO, so images that were requested last (usually the ones that are on screen right
+ * now) are loaded first.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class ImageExecutor
+{
+	private static final int				KEEP_ALIVE_SECONDS	= 30;
+
+	private final ThreadPoolExecutor		diskExecutor;
+	private final ThreadPoolExecutor		networkExecutor;
+	private final ThreadPoolExecutor		decodeExecutor;
+
+	/**
+	 * @return Executor with default pool sizes.
+	 */
+	public static ImageExecutor createDefault()
+	{
+		final int processors = Runtime.getRuntime().availableProcessors();
+		return new ImageExecutor(2, 4, Math.max(1, processors - 1));
+	}
+
+	/**
+	 * Creates new executor.
+	 * 
+	 * @param diskThreads
+	 *            Number of threads that read from file cache.
+	 * @param networkThreads
+	 *            Number of threads that download images.
+	 * @param decodeThreads
+	 *            Number of threads that decode and process images.
+	 */
+	public ImageExecutor(int diskThreads, int networkThreads, int decodeThreads)
+	{
+		diskExecutor = createExecutor(diskThreads, "ImageDisk");
+		networkExecutor = createExecutor(networkThreads, "ImageNetwork");
+		decodeExecutor = createExecutor(decodeThreads, "ImageDecode");
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Queues task to read image from file cache.
+	 */
+	public void executeDisk(ImageTask task)
+	{
+		execute(diskExecutor, task);
+	}
+
+	/**
+	 * Queues task to download image.
+	 */
+	public void executeNetwork(ImageTask task)
+	{
+		execute(networkExecutor, task);
+	}
+
+	/**
+	 * Queues task to decode and process image.
+	 */
+	public void executeDecode(ImageTask task)
+	{
+		execute(decodeExecutor, task);
+	}
+
+	/**
+	 * Raises priority of task. If task is waiting in a queue, it is queued again, so it moves ahead of tasks with lower priority. Stages that are
+	 * queued later get the new priority too. Does nothing if task already has the same or higher priority.
+	 * 
+	 * @param task
+	 *            Task that was queued on this executor.
+	 * @param priority
+	 *            New priority.
+	 */
+	public void raisePriority(ImageTask task, int priority)
+	{
+		// Queue must not see priority of its task change, so task is removed first
+		synchronized (task)
+		{
+			if (task.priority >= priority)
+				return;
+
+			ThreadPoolExecutor executor = null;
+			if (diskExecutor.remove(task))
+				executor = diskExecutor;
+			else if (networkExecutor.remove(task))
+				executor = networkExecutor;
+			else if (decodeExecutor.remove(task))
+				executor = decodeExecutor;
+
+			task.priority = priority;
+			if (executor != null)
+				executor.execute(task);
+		}
+	}
+
+	/**
+	 * Stops accepting new tasks. Tasks that are already running will finish, queued tasks are dropped.
+	 */
+	public void shutdown()
+	{
+		shutdown(diskExecutor);
+		shutdown(networkExecutor);
+		shutdown(decodeExecutor);
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static void execute(ThreadPoolExecutor executor, ImageTask task)
+	{
+		synchronized (task)
+		{
+			task.queuedTime = SystemClock.uptimeMillis();
+			executor.execute(task);
+		}
+	}
+
+	/**
+	 * Unlike {@link ThreadPoolExecutor#shutdownNow()}, does not interrupt running tasks.
+	 */
+	private static void shutdown(ThreadPoolExecutor executor)
+	{
+		executor.shutdown();
+		executor.getQueue().clear();
+	}
+
+	@TargetApi(9)
+	private static ThreadPoolExecutor createExecutor(int threads, final String name)
+	{
+		threads = Math.max(1, threads);
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(16, new TaskComparator()), new ImageThreadFactory(name));
+		if (APIUtils.SUPPORTS_GINGERBREAD)
+			executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	// ImageTask
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Work that can be queued in {@link ImageExecutor}.
+	 */
+	public static abstract class ImageTask implements Runnable
+	{
+		public static final int				PRIORITY_LOW		= 0;
+		public static final int				PRIORITY_NORMAL		= 1;
+		public static final int				PRIORITY_HIGH		= 2;
+
+		private static final AtomicLong		sequenceGenerator	= new AtomicLong();
+
+		/** Tasks with higher priority are executed first. Only changed by {@link ImageExecutor#raisePriority(ImageTask, int)}. */
+		private volatile int				priority;
+
+		/** Tasks with same priority are executed from the newest to the oldest. */
+		public final long					sequence;
+
+		/** {@link SystemClock#uptimeMillis()} when task was queued last time. */
+		protected volatile long				queuedTime;
+
+		public ImageTask(int priority)
+		{
+			this.priority = priority;
+			this.sequence = sequenceGenerator.incrementAndGet();
+		}
+
+		public int getPriority()
+		{
+			return priority;
+		}
+	}
+
+	// TaskComparator
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class TaskComparator implements Comparator<Runnable>
+	{
+		@Override
+		public int compare(Runnable lhs, Runnable rhs)
+		{
+			final ImageTask lhsTask = (ImageTask) lhs;
+			final ImageTask rhsTask = (ImageTask) rhs;
+
+			// Higher priority first
+			if (lhsTask.priority != rhsTask.priority)
+				return lhsTask.priority > rhsTask.priority ? -1 : 1;
+
+			// Newer task first
+			if (lhsTask.sequence != rhsTask.sequence)
+				return lhsTask.sequence > rhsTask.sequence ? -1 : 1;
+
+			return 0;
+		}
+	}
+
+	// ImageThreadFactory
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class ImageThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger	count	= new AtomicInteger(1);
+		private final String		name;
+
+		public ImageThreadFactory(String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(final Runnable runnable)
+		{
+			return new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					runnable.run();
+				}
+			}, name + " #" + count.getAndIncrement());
+		}
+	}
+}
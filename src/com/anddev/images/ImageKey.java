@@ -0,0 +1,84 @@
+package com.anddev.images;
+
+import android.graphics.Bitmap.Config;
+
+import com.anddev.images.info.BitmapInfo;
+import com.anddev.images.processors.ImageProcessor;
+import com.anddev.images.processors.ScaleImageProcessor.ScaleType;
+
+/**
+ * Key for bitmap in memory cache. Made of everything that makes loaded bitmap different: source, size, scale type, processor and config.
+ * <p>
+ * Key is cheap to create and compare, because it does not calculate any digests and hash code is calculated once in constructor. That makes it
+ * safe to use on UI thread every time image is bound to a view.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public final class ImageKey
+{
+	/** {@link BitmapInfo#getUniqueName()}. */
+	public final String		sourceId;
+	public final int		width;
+	public final int		height;
+	/** Decoder sizes bitmap differently for every {@link ScaleType}. Can be {@code null}. */
+	public final ScaleType	scaleType;
+	/** {@link ImageProcessor#getUniqueId()} or {@code null}. */
+	public final String		processorId;
+	/** Requested config or {@code null} if it is picked automatically. */
+	public final Config		config;
+
+	private final int		hashCode;
+
+	public ImageKey(String sourceId, int width, int height, ScaleType scaleType, String processorId, Config config)
+	{
+		this.sourceId = sourceId;
+		this.width = width;
+		this.height = height;
+		this.scaleType = scaleType;
+		this.processorId = processorId;
+		this.config = config;
+
+		int result = sourceId.hashCode();
+		result = 31 * result + width;
+		result = 31 * result + height;
+		result = 31 * result + (scaleType != null ? scaleType.ordinal() + 1 : 0);
+		result = 31 * result + (processorId != null ? processorId.hashCode() : 0);
+		result = 31 * result + (config != null ? config.ordinal() + 1 : 0);
+		this.hashCode = result;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public int hashCode()
+	{
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+			return true;
+
+		if (!(o instanceof ImageKey))
+			return false;
+
+		final ImageKey other = (ImageKey) o;
+		return hashCode == other.hashCode && width == other.width && height == other.height && scaleType == other.scaleType
+				&& config == other.config && sourceId.equals(other.sourceId)
+				&& (processorId != null ? processorId.equals(other.processorId) : other.processorId == null);
+	}
+
+	/**
+	 * @return String that contains all parts of the key. Used to generate {@link ImageToLoad#getMemoryName()}.
+	 */
+	@Override
+	public String toString()
+	{
+		return sourceId + "_" + width + "x" + height + (scaleType != null ? "_" + scaleType : "") + (processorId != null ? "_" + processorId : "")
+				+ (config != null ? "_" + config : "");
+	}
+}
@@ -1,30 +1,73 @@
 package com.anddev.images;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.RejectedExecutionException;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
-import android.os.AsyncTask;
+import android.graphics.drawable.Drawable;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.ImageView;
 
 import com.anddev.AndDevSettings;
 import com.anddev.BuildConfig;
+import com.anddev.images.ImageExecutor.ImageTask;
 import com.anddev.images.info.BitmapInfo;
+import com.anddev.images.info.BitmapInfo.BitmapFetcher;
+import com.anddev.images.info.BitmapInfo.PreviewListener;
+import com.anddev.images.info.TemplateURLBitmapInfo;
 import com.anddev.images.processors.ImageProcessor;
+import com.anddev.utils.NetworkUtils;
 
 public class ImageLoader
 {
-	public static final String	TAG			= "ImageLoader";
+	public static final String					TAG					= "ImageLoader";
 
-	private static ImageLoader	instance	= null;
+	private static ImageLoader					instance			= null;
 
-	private Context				context;
-	private ImageCache			imageCache;
+	private final Handler						handler				= new Handler(Looper.getMainLooper());
+
+	/** Tasks that are loading right now. Key is {@link ImageToLoad#memoryKey}. Only accessed from UI thread. */
+	private final Map<ImageKey, GetBitmapTask>	runningTasks		= new HashMap<ImageKey, GetBitmapTask>();
+
+	/** Requests that were deferred while paused. Only the last request for every view is kept. Only accessed from UI thread. */
+	private final Map<ImageView, ImageToLoad>	pausedRequests		= new WeakHashMap<ImageView, ImageToLoad>();
+
+	/** Bitmaps that are pinned in {@link ImageCache} for views that display them. Only accessed from UI thread. */
+	private final Map<ImageView, ViewPin>		viewPins			= new WeakHashMap<ImageView, ViewPin>();
+	/** Pins of garbage collected views, which must be released. */
+	private final ReferenceQueue<ImageView>		collectedViews		= new ReferenceQueue<ImageView>();
+	/** File names of stale images that are being revalidated. Accessed from worker threads. */
+	private final Set<String>					revalidatingFiles	= new HashSet<String>();
+	/** Views that display smaller variant of {@link TemplateURLBitmapInfo} because network was metered. Only accessed from UI thread. */
+	private final Map<ImageView, ImageToLoad>	downgradedViews		= new WeakHashMap<ImageView, ImageToLoad>();
+
+	private Context								context;
+	private ImageCache							imageCache;
+	private ImageExecutor						executor;
+	private ImageMetrics						metrics;
+	private boolean								paused				= false;
+	private boolean								meteredNetwork		= false;
+	private boolean								upgradeOnUnmetered	= false;
 
 	public static ImageLoader getInstance(Context context)
 	{
@@ -37,6 +80,20 @@ public class ImageLoader
 	{
 		this.context = context.getApplicationContext();
 		imageCache = ImageCache.getInstance(context.getApplicationContext());
+		executor = ImageExecutor.createDefault();
+		metrics = new ImageMetrics(imageCache);
+		imageCache.setPinReleaser(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				releaseUnusedPins();
+			}
+		});
+
+		// Network type is tracked here, so it is not queried for every request
+		if (NetworkUtils.canAccessNetworkState(this.context))
+			registerNetworkReceiver();
 	}
 
 	// Public methods
@@ -44,137 +101,999 @@ public class ImageLoader
 
 	public void loadImage(final ImageView imageView, final BitmapInfo bitmapInfo, ImageParams params)
 	{
-		if (imageView == null || bitmapInfo == null)
+		loadImage(imageView, bitmapInfo, params, null);
+	}
+
+	/**
+	 * Loads image in background with low priority without setting it to any view, so it is ready when it is needed. Must be called from UI
+	 * thread.
+	 * <p>
+	 * Original image is always stored in file cache if {@link ImageParams#useFileCache} is {@code true}. Decoded and processed bitmap is stored in
+	 * memory cache if {@link ImageParams#useMemoryCache} is {@code true} and in file cache of processed bitmaps if
+	 * {@link ImageParams#useProcessedFileCache} is {@code true}; if neither is set, image is not decoded at all. Params must be the same as
+	 * params that will be used to load the image, otherwise memory cache will not be hit. {@link ImageParams#listener} is not called.
+	 * </p>
+	 * 
+	 * @param bitmapInfo
+	 *            Image to prefetch.
+	 * @param params
+	 *            Params that will be used to load the image.
+	 */
+	public void prefetch(final BitmapInfo bitmapInfo, final ImageParams params)
+	{
+		if (paused || bitmapInfo == null || params == null || TextUtils.isEmpty(bitmapInfo.getUniqueName()))
+			return;
+
+		final ImageToLoad imageToLoad = new ImageToLoad(null, selectVariant(bitmapInfo, params), params);
+
+		// Already loaded or loading
+		if (runningTasks.containsKey(imageToLoad.memoryKey) || (params.useMemoryCache && imageCache.getFromMemory(imageToLoad.memoryKey) != null))
+			return;
+
+		final GetBitmapTask getBitmapTask = new GetBitmapTask(imageToLoad, ImageTask.PRIORITY_LOW);
+
+		// Local source without decoding leaves nothing to warm
+		if (!params.useMemoryCache && !params.useProcessedFileCache && !(params.useFileCache && getBitmapTask.bitmapFetcher.isNetworkFetcher()))
+			return;
+
+		try
+		{
+			runningTasks.put(imageToLoad.memoryKey, getBitmapTask);
+			getBitmapTask.execute();
+		}
+		catch (RejectedExecutionException e)
+		{
+			runningTasks.remove(imageToLoad.memoryKey);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops starting new work. While paused, only images from memory cache are set, other requests are deferred until {@link #resume()} and
+	 * prefetch requests are ignored. Work that is already running is not stopped. Must be called from UI thread.
+	 * 
+	 * @see PauseOnScrollListener
+	 */
+	public void pause()
+	{
+		paused = true;
+	}
+
+	/**
+	 * Starts deferred requests of views that are still shown. Requests of views that are not shown stay deferred until views are shown at the time
+	 * of next resume or get new request. Must be called from UI thread.
+	 */
+	public void resume()
+	{
+		if (!paused)
+			return;
+
+		paused = false;
+		if (pausedRequests.isEmpty())
+			return;
+
+		final List<ImageToLoad> requests = new ArrayList<ImageToLoad>(pausedRequests.values());
+		for (ImageToLoad request : requests)
+		{
+			final ImageView imageView = request.getImageView();
+			if (imageView != null && imageView.isShown())
+				loadImage(imageView, request.bitmapInfo, request.params);
+		}
+	}
+
+	public boolean isPaused()
+	{
+		return paused;
+	}
+
+	/**
+	 * Releases bitmap that view displays, so it can be evicted from memory cache. Call it when view is detached from window and call
+	 * {@link #restoreView(ImageView)} when it is attached again. {@link com.anddev.views.LoaderImageView} does it automatically. Must be called
+	 * from UI thread.
+	 * 
+	 * @param imageView
+	 *            View that is detached.
+	 */
+	public void releaseView(ImageView imageView)
+	{
+		final ViewPin viewPin = viewPins.get(imageView);
+		if (viewPin == null)
+			return;
+
+		// Drawable was replaced outside of loader, so bitmap is not needed anymore
+		if (!isDisplaying(imageView, viewPin.bitmap))
+			unpinView(imageView);
+		else
+			release(viewPin);
+	}
+
+	/**
+	 * Pins bitmap of view that was released with {@link #releaseView(ImageView)} again. Must be called from UI thread.
+	 * 
+	 * @param imageView
+	 *            View that is attached.
+	 * @return {@code true} if view can keep displaying its bitmap; {@code false} if bitmap was evicted while view was detached and image must be
+	 *         loaded again, because evicted bitmap might be reused for other image. Views that don't display loaded bitmap anymore return
+	 *         {@code true}, because drawable that was set outside of loader must not be replaced.
+	 */
+	public boolean restoreView(ImageView imageView)
+	{
+		final ViewPin viewPin = viewPins.get(imageView);
+		if (viewPin == null)
+			return true;
+
+		if (!isDisplaying(imageView, viewPin.bitmap))
+		{
+			unpinView(imageView);
+			return true;
+		}
+
+		if (viewPin.pinned)
+			return true;
+
+		if (imageCache.getFromMemory(viewPin.memoryKey) != viewPin.bitmap)
+		{
+			viewPins.remove(imageView);
+			viewPin.clear();
+			return false;
+		}
+
+		imageCache.pin(viewPin.memoryKey, viewPin.bitmap);
+		viewPin.pinned = true;
+		return true;
+	}
+
+	/**
+	 * @return Metrics of this loader.
+	 */
+	public ImageMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Replaces executor that is used to load images. Tasks that are already queued will finish on previous executor.
+	 * 
+	 * @param executor
+	 *            New executor.
+	 */
+	public void setExecutor(ImageExecutor executor)
+	{
+		if (executor != null)
+			this.executor = executor;
+	}
+
+	/**
+	 * @return {@code true} if the last known network is metered. Smaller variants of {@link TemplateURLBitmapInfo} are loaded then.
+	 */
+	public boolean isMeteredNetwork()
+	{
+		return meteredNetwork;
+	}
+
+	/**
+	 * Sets whether views that display smaller variant of {@link TemplateURLBitmapInfo} should load the largest variant when unmetered network
+	 * connects. Smaller bitmap stays visible until the larger one is loaded. Default is {@code false}.
+	 * 
+	 * @param upgradeOnUnmetered
+	 *            {@code true} to load larger variants on unmetered network.
+	 */
+	public void setUpgradeOnUnmetered(boolean upgradeOnUnmetered)
+	{
+		this.upgradeOnUnmetered = upgradeOnUnmetered;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected void setBitmap(ImageView imageView, Bitmap bitmap, Bitmap placeholder)
+	{
+		final BitmapDrawable drawable = new BitmapDrawable(imageView.getResources(), bitmap);
+		imageView.setImageDrawable(drawable);
+	}
+
+	/**
+	 * Checks whether view still displays bitmap that was set with {@link #setBitmap(ImageView, Bitmap, Bitmap)}. Bitmaps of views that display
+	 * something else are unpinned. Override it together with {@link #setBitmap(ImageView, Bitmap, Bitmap)} if bitmap is wrapped in other drawable.
+	 */
+	protected boolean isDisplaying(ImageView imageView, Bitmap bitmap)
+	{
+		final Drawable drawable = imageView.getDrawable();
+		return drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() == bitmap;
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @param loadingBitmap
+	 *            Bitmap that is shown instead of placeholder while image is loading. Can be {@code null}.
+	 */
+	private void loadImage(final ImageView imageView, final BitmapInfo requestedBitmapInfo, ImageParams params, Bitmap loadingBitmap)
+	{
+		if (imageView == null || requestedBitmapInfo == null)
 			return;
 
 		if (params == null)
 			params = new ImageParams(ImageParams.NO_SIZE, ImageParams.NO_SIZE, null, null);
 
-		if (TextUtils.isEmpty(bitmapInfo.getUniqueName()))
+		if (TextUtils.isEmpty(requestedBitmapInfo.getUniqueName()))
 		{
 			// TODO Log
+			unpinView(imageView);
 			imageView.setImageBitmap(params.placeholder);
 			return;
 		}
 
+		// New request replaces deferred one
+		pausedRequests.remove(imageView);
+		downgradedViews.remove(imageView);
+
+		final BitmapInfo bitmapInfo = selectVariant(requestedBitmapInfo, params);
 		final ImageToLoad imageToLoad = new ImageToLoad(imageView, bitmapInfo, params);
+		final Bitmap placeholder = loadingBitmap != null ? loadingBitmap : params.placeholder;
+		metrics.addRequest();
+
+		// Smaller variant can be replaced when network is not metered anymore
+		if (bitmapInfo instanceof TemplateURLBitmapInfo && !((TemplateURLBitmapInfo) bitmapInfo).isLargestVariant())
+			downgradedViews.put(imageView, imageToLoad);
 
 		// Try to get bitmap from cache
 		if (params.useMemoryCache)
 		{
-			Bitmap bitmap = imageCache.getFromMemory(imageToLoad.memoryName);
+			Bitmap bitmap = imageCache.getFromMemory(imageToLoad.memoryKey);
 			if (bitmap != null)
 			{
 				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
 					Log.d(ImageLoader.TAG, "Memory cache. " + imageToLoad.bitmapInfo.getUniqueName());
-				imageView.setImageBitmap(bitmap);
+				metrics.addMemoryHit();
+				setBitmap(imageView, bitmap, params.placeholder);
+				pinView(imageView, imageToLoad.memoryKey, bitmap);
 				if (params.listener != null)
 					params.listener.onImageLoaderFinished(imageToLoad, bitmap);
 				return;
 			}
 		}
 
+		// View will not display previous bitmap anymore
+		unpinView(imageView);
+
 		// If bitmap was not found in cache and same work is not already running - load it
 		if (imageToLoad.cancelPotentialWork())
 		{
+			// If other view is already loading the same image, wait for the same result
+			final GetBitmapTask runningTask = runningTasks.get(imageToLoad.memoryKey);
+			if (runningTask != null && !runningTask.isCancelled())
+			{
+				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+					Log.d(ImageLoader.TAG, "Attached to running task. " + imageToLoad.bitmapInfo.getUniqueName());
+				runningTask.attach(imageToLoad);
+
+				// View is waiting now, so prefetch must not stay behind other visible images
+				executor.raisePriority(runningTask, ImageTask.PRIORITY_NORMAL);
+				imageView.setImageDrawable(new AsyncDrawable(context.getResources(), placeholder, runningTask));
+				return;
+			}
+
+			// Don't start new work while paused
+			if (paused)
+			{
+				imageView.setImageBitmap(placeholder);
+				pausedRequests.put(imageView, imageToLoad);
+				return;
+			}
+
 			try
 			{
 				final GetBitmapTask getBitmapTask = new GetBitmapTask(imageToLoad);
-				final AsyncDrawable asyncDrawable = new AsyncDrawable(context.getResources(), params.placeholder, getBitmapTask);
+				final AsyncDrawable asyncDrawable = new AsyncDrawable(context.getResources(), placeholder, getBitmapTask);
 				imageView.setImageDrawable(asyncDrawable);
+				runningTasks.put(imageToLoad.memoryKey, getBitmapTask);
 				getBitmapTask.execute();
 			}
 			catch (RejectedExecutionException e)
 			{
+				runningTasks.remove(imageToLoad.memoryKey);
 				e.printStackTrace();
 			}
 		}
 	}
 
-	// Protected methods
-	// ------------------------------------------------------------------------------------------------------------------------------------
 
-	protected void setBitmap(ImageView imageView, Bitmap bitmap, Bitmap placeholder)
+	/**
+	 * Pins bitmap while view displays it. Does nothing if view already pins the same image.
+	 */
+	private void pinView(ImageView imageView, ImageKey memoryKey, Bitmap bitmap)
 	{
-		final BitmapDrawable drawable = new BitmapDrawable(imageView.getResources(), bitmap);
-		imageView.setImageDrawable(drawable);
+		final ViewPin viewPin = viewPins.get(imageView);
+		if (viewPin != null && viewPin.pinned && viewPin.bitmap == bitmap)
+			return;
+
+		unpinView(imageView);
+		imageCache.pin(memoryKey, bitmap);
+		viewPins.put(imageView, new ViewPin(imageView, memoryKey, bitmap, collectedViews));
+	}
+
+	private void unpinView(ImageView imageView)
+	{
+		final ViewPin viewPin = viewPins.remove(imageView);
+		if (viewPin != null)
+		{
+			// Cleared reference is not queued when view is collected
+			viewPin.clear();
+			release(viewPin);
+		}
+		releaseCollectedViews();
+	}
+
+	private void release(ViewPin viewPin)
+	{
+		if (!viewPin.pinned)
+			return;
+
+		viewPin.pinned = false;
+		imageCache.unpin(viewPin.memoryKey);
 	}
 
-	// AsyncTask
+	private void releaseCollectedViews()
+	{
+		ViewPin viewPin;
+		while ((viewPin = (ViewPin) collectedViews.poll()) != null)
+			release(viewPin);
+	}
+
+	/**
+	 * Releases pins of collected views and of views that display something else now. Called by {@link ImageCache} before memory is trimmed, so
+	 * released bitmaps can be evicted.
+	 */
+	private void releaseUnusedPins()
+	{
+		releaseCollectedViews();
+
+		final List<ImageView> imageViews = new ArrayList<ImageView>();
+		for (Map.Entry<ImageView, ViewPin> entry : viewPins.entrySet())
+		{
+			final ImageView imageView = entry.getKey();
+			if (imageView != null && entry.getValue().pinned && !isDisplaying(imageView, entry.getValue().bitmap))
+				imageViews.add(imageView);
+		}
+
+		for (ImageView imageView : imageViews)
+			unpinView(imageView);
+	}
+
+	/**
+	 * Selects variant of {@link TemplateURLBitmapInfo}. The largest variant is used unless network is metered. On metered network larger variant
+	 * is used only if it is already in memory cache, otherwise {@link TemplateURLBitmapInfo#getMeteredVariant()} is used. Other infos are
+	 * returned as they are.
+	 */
+	private BitmapInfo selectVariant(BitmapInfo bitmapInfo, ImageParams params)
+	{
+		if (!(bitmapInfo instanceof TemplateURLBitmapInfo))
+			return bitmapInfo;
+
+		final TemplateURLBitmapInfo templateInfo = (TemplateURLBitmapInfo) bitmapInfo;
+		final int largestVariant = templateInfo.getVariantCount() - 1;
+		final int meteredVariant = templateInfo.getMeteredVariant();
+		if (!meteredNetwork || meteredVariant >= largestVariant)
+			return templateInfo.withVariant(largestVariant);
+
+		if (params.useMemoryCache)
+		{
+			for (int i = largestVariant; i > meteredVariant; i--)
+			{
+				final TemplateURLBitmapInfo variantInfo = templateInfo.withVariant(i);
+				if (imageCache.getFromMemory(new ImageToLoad(null, variantInfo, params).memoryKey) != null)
+					return variantInfo;
+			}
+		}
+
+		return templateInfo.withVariant(meteredVariant);
+	}
+
+	private void registerNetworkReceiver()
+	{
+		meteredNetwork = NetworkUtils.isMetered(context);
+		context.registerReceiver(new BroadcastReceiver()
+		{
+			@Override
+			public void onReceive(Context context, Intent intent)
+			{
+				final boolean wasMetered = meteredNetwork;
+				meteredNetwork = NetworkUtils.isMetered(context);
+				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+					Log.d(ImageLoader.TAG, "Network changed. Metered: " + meteredNetwork);
+
+				if (wasMetered && !meteredNetwork && upgradeOnUnmetered)
+					upgradeDowngradedViews();
+			}
+		}, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+
+	/**
+	 * Loads the largest variant for views that still display smaller one. Bitmap that is displayed now is shown until the larger one is loaded.
+	 */
+	private void upgradeDowngradedViews()
+	{
+		final Map<ImageView, ImageToLoad> imageViews = new HashMap<ImageView, ImageToLoad>(downgradedViews);
+		for (Map.Entry<ImageView, ImageToLoad> entry : imageViews.entrySet())
+		{
+			final ImageView imageView = entry.getKey();
+			final ImageToLoad request = entry.getValue();
+			final ViewPin viewPin = imageView != null ? viewPins.get(imageView) : null;
+			if (viewPin == null || !viewPin.pinned || !viewPin.memoryKey.equals(request.memoryKey))
+				continue;
+
+			loadImage(imageView, request.bitmapInfo, request.params, viewPin.bitmap);
+		}
+	}
+
+	/**
+	 * Removes changed image from memory cache and loads it again for views that display it. Views are unpinned first, so old bitmap is not pinned
+	 * anymore. Released views will reload on {@link #restoreView(ImageView)}.
+	 */
+	private void reloadChanged(List<ImageToLoad> requests)
+	{
+		final Map<ImageView, ImageToLoad> imageViews = new HashMap<ImageView, ImageToLoad>();
+		for (Map.Entry<ImageView, ViewPin> entry : viewPins.entrySet())
+		{
+			final ViewPin viewPin = entry.getValue();
+			if (!viewPin.pinned)
+				continue;
+
+			for (ImageToLoad request : requests)
+			{
+				if (request.memoryKey.equals(viewPin.memoryKey))
+				{
+					imageViews.put(entry.getKey(), request);
+					break;
+				}
+			}
+		}
+
+		for (ImageView imageView : imageViews.keySet())
+			unpinView(imageView);
+
+		for (ImageToLoad request : requests)
+			imageCache.removeFromMemory(request.memoryKey);
+
+		for (Map.Entry<ImageView, ImageToLoad> entry : imageViews.entrySet())
+			loadImage(entry.getKey(), entry.getValue().bitmapInfo, entry.getValue().params);
+	}
+
+	// GetBitmapTask
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
-	public class GetBitmapTask extends AsyncTask<Void, Void, Bitmap>
+	/**
+	 * Loads bitmap on {@link ImageExecutor}. Work is split into stages, so that each stage runs on appropriate thread pool: file cache read,
+	 * network fetch (only for fetchers that need it) and decode with processing.
+	 */
+	public class GetBitmapTask extends ImageTask implements PreviewListener
 	{
-		public final ImageToLoad	imageToLoad;
+		private static final int		STAGE_FILE_CACHE	= 0;
+		private static final int		STAGE_FETCH			= 1;
+		private static final int		STAGE_DECODE		= 2;
+
+		public final ImageToLoad		imageToLoad;
+
+		/** All requests waiting for this task, including {@link #imageToLoad}. Only accessed from UI thread. */
+		private final List<ImageToLoad>	imageToLoadList		= new ArrayList<ImageToLoad>();
+		private final BitmapFetcher		bitmapFetcher;
+		/** {@code false} for prefetch that only warms file cache. */
+		private final boolean			decodeRequired;
+		private volatile boolean		cancelled			= false;
+		private int						stage;
+		/** Set when result was not decoded, because {@link #decodeRequired} is {@code false}. */
+		private boolean					decodeSkipped		= false;
 
 		public GetBitmapTask(ImageToLoad imageToLoad)
 		{
+			this(imageToLoad, PRIORITY_NORMAL);
+		}
+
+		public GetBitmapTask(ImageToLoad imageToLoad, int priority)
+		{
+			super(priority);
 			this.imageToLoad = imageToLoad;
+			this.bitmapFetcher = imageToLoad.bitmapInfo.getBitmapFetcher(context);
+			this.decodeRequired = !imageToLoad.isPrefetch() || imageToLoad.params.useMemoryCache || imageToLoad.params.useProcessedFileCache;
+			imageToLoad.getCancelSignal();
+			imageToLoadList.add(imageToLoad);
 		}
 
 		@Override
-		protected Bitmap doInBackground(Void... params)
+		public void run()
 		{
-			Bitmap bitmap = null;
+			if (isCancelled())
+				return;
+
+			metrics.addQueueWait(SystemClock.uptimeMillis() - queuedTime);
+			try
+			{
+				switch (stage)
+				{
+					case STAGE_FILE_CACHE:
+						runFileCacheStage();
+						break;
+
+					case STAGE_FETCH:
+						runFetchStage();
+						break;
+
+					case STAGE_DECODE:
+						runDecodeStage();
+						break;
+				}
+			}
+			finally
+			{
+				// Fetcher counts downloaded bytes on the request, so it does not need to know about metrics
+				metrics.addBytesDownloaded(imageToLoad.takeBytesDownloaded());
+			}
+		}
+
+		// Public methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Queues this task on {@link ImageExecutor}.
+		 */
+		public void execute()
+		{
+			if (imageToLoad.params.useFileCache || imageToLoad.params.useProcessedFileCache)
+			{
+				stage = STAGE_FILE_CACHE;
+				executor.executeDisk(this);
+			}
+			else
+			{
+				executeLoad();
+			}
+		}
+
+		/**
+		 * Cancels this task. Queued stages will not run and result will not be delivered.
+		 * 
+		 * @param mayInterruptIfRunning
+		 *            If {@code true}, stage that is running right now is stopped too: download is aborted and decode is cancelled through
+		 *            {@link ImageToLoad#getCancelSignal()}.
+		 * @return {@code true} if task was cancelled; {@code false} if it was already cancelled.
+		 */
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			if (cancelled)
+				return false;
+
+			cancelled = true;
+
+			// Prefetch that skipped decode is cancelled after it is finished
+			if (!decodeSkipped)
+				metrics.addCancellation();
+
+			if (mayInterruptIfRunning)
+				imageToLoad.getCancelSignal().cancel();
+			return true;
+		}
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		/**
+		 * Adds request that will receive the result of this task. Must be called from UI thread.
+		 * 
+		 * @param imageToLoad
+		 *            Request for the same {@link ImageToLoad#memoryKey}.
+		 */
+		public void attach(ImageToLoad imageToLoad)
+		{
+			imageToLoadList.add(imageToLoad);
+		}
+
+		/**
+		 * Processes preview with the same processor as the final bitmap, so both have the same size and preview can be replaced without a jump.
+		 */
+		@Override
+		public void onPreview(Bitmap preview)
+		{
+			if (isCancelled())
+				return;
+
+			final ImageProcessor imageProcessor = imageToLoad.params.imageProcessor;
+			final Bitmap processedPreview = imageProcessor != null ? imageProcessor.processImage(preview) : preview;
+			if (processedPreview == null || isCancelled())
+				return;
+
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.d(ImageLoader.TAG, "Preview. " + imageToLoad.bitmapInfo.getUniqueName());
+
+			handler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					onPreviewReady(processedPreview);
+				}
+			});
+		}
+
+		/**
+		 * Removes requests of given view from this task. If no other views are waiting for the result, task is cancelled. Must be called from UI
+		 * thread.
+		 * 
+		 * @param imageView
+		 *            View that does not need the result anymore.
+		 */
+		public void detach(ImageView imageView)
+		{
+			for (Iterator<ImageToLoad> iterator = imageToLoadList.iterator(); iterator.hasNext();)
+			{
+				final ImageToLoad request = iterator.next();
+				if (request.isPrefetch())
+					continue;
+
+				final ImageView requestImageView = request.getImageView();
+				if (requestImageView == null || requestImageView == imageView)
+					iterator.remove();
+			}
+
+			if (imageToLoadList.isEmpty())
+			{
+				cancel(true);
+				if (runningTasks.get(imageToLoad.memoryKey) == this)
+					runningTasks.remove(imageToLoad.memoryKey);
+			}
+		}
+
+		// Protected methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		protected void onPostExecute(Bitmap bitmap)
+		{
+			if (runningTasks.get(imageToLoad.memoryKey) == this)
+				runningTasks.remove(imageToLoad.memoryKey);
+
+			if (isCancelled())
+			{
+				bitmap = null;
+				return;
+			}
+
+			// Views that attached to prefetch task still need decoded bitmap. It's in file cache now, so load it again.
+			if (decodeSkipped)
+			{
+				cancel(true);
+				for (ImageToLoad request : imageToLoadList)
+				{
+					final ImageView imageView = request.getImageView();
+					if (imageView != null && request.getGetBitmapTask() == this)
+						loadImage(imageView, request.bitmapInfo, request.params);
+				}
+				return;
+			}
+
+			for (ImageToLoad request : imageToLoadList)
+			{
+				if (request.isPrefetch())
+					continue;
+
+				final ImageView imageView = request.getImageView();
+				if (imageView != null && bitmap != null && request.getGetBitmapTask() == this)
+				{
+					setBitmap(imageView, bitmap, request.params.placeholder);
+					if (request.params.useMemoryCache)
+						pinView(imageView, request.memoryKey, bitmap);
+				}
+
+				if (request.params.listener != null)
+					request.params.listener.onImageLoaderFinished(request, bitmap);
+			}
+
+			metrics.notifyListener();
+		}
+
+		/**
+		 * Shows preview instead of placeholder. Views still point to this task, so preview is replaced by the final bitmap when it is ready.
+		 */
+		protected void onPreviewReady(Bitmap preview)
+		{
+			if (isCancelled())
+				return;
+
+			for (ImageToLoad request : imageToLoadList)
+			{
+				final ImageView imageView = request.getImageView();
+				if (imageView != null && request.getGetBitmapTask() == this)
+					imageView.setImageDrawable(new AsyncDrawable(imageView.getResources(), preview, this));
+			}
+		}
+
+		// Private methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		private void runFileCacheStage()
+		{
+			// Prefetch is done if original is already in file cache
+			if (!decodeRequired && imageCache.containsFile(imageToLoad.getFileName()))
+			{
+				skipDecode();
+				return;
+			}
+
+			// Processed bitmap is ready to display, so it skips both sampling and processing
+			if (imageToLoad.params.useProcessedFileCache)
+			{
+				final long startTime = SystemClock.uptimeMillis();
+				final Bitmap bitmap = imageCache.getProcessedFromFile(imageToLoad);
+				if (bitmap != null)
+				{
+					if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+						Log.d(ImageLoader.TAG, "Processed file cache. " + imageToLoad.bitmapInfo.getUniqueName());
+					metrics.addProcessedFileHit();
+					metrics.addDecodeTime(SystemClock.uptimeMillis() - startTime);
+					metrics.addBitmapBytes(BitmapPool.getBitmapSize(bitmap));
+					deliver(bitmap);
+					revalidateIfStale();
+					return;
+				}
+			}
 
 			// Try to get bitmap from file cache
-			if (!isCancelled() && imageToLoad.params.useFileCache)
+			if (imageToLoad.params.useFileCache)
+			{
+				final long startTime = SystemClock.uptimeMillis();
+				final Bitmap bitmap = imageCache.getFromFile(imageToLoad);
+				if (bitmap != null)
+				{
+					if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+						Log.d(ImageLoader.TAG, "File cache. " + imageToLoad.bitmapInfo.getUniqueName());
+					metrics.addFileHit();
+					metrics.addDecodeTime(SystemClock.uptimeMillis() - startTime);
+					metrics.addBitmapBytes(BitmapPool.getBitmapSize(bitmap));
+					finish(bitmap);
+					revalidateIfStale();
+					return;
+				}
+			}
+
+			executeLoad();
+		}
+
+		private void runFetchStage()
+		{
+			final long startTime = SystemClock.uptimeMillis();
+			if (!bitmapFetcher.fetch(imageToLoad, this))
 			{
-				bitmap = imageCache.getFromFile(imageToLoad);
-				if (BuildConfig.DEBUG && bitmap != null && AndDevSettings.Logging.LOG_IMAGE_LOADER)
-					Log.d(ImageLoader.TAG, "File cache. " + imageToLoad.bitmapInfo.getUniqueName());
+				postResult(null);
+				return;
 			}
+			metrics.addNetworkLoad();
+			metrics.addDownloadTime(SystemClock.uptimeMillis() - startTime);
 
-			// Load bitmap and put it to file cache
-			if (bitmap == null && !isCancelled())
+			if (!decodeRequired)
 			{
-				// Get bitmap
-				bitmap = imageToLoad.loadBitmap(context);
+				skipDecode();
+			}
+			else if (!isCancelled())
+			{
+				stage = STAGE_DECODE;
+				executor.executeDecode(this);
+			}
+		}
 
-				// Save to file cache
-				if (bitmap != null && imageToLoad.params.useFileCache && imageCache.putToFile(imageToLoad.fileName, bitmap) && BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
-					Log.d(ImageLoader.TAG, "Saving to file cache. " + imageToLoad.bitmapInfo.getUniqueName());
+		private void runDecodeStage()
+		{
+			// Get bitmap
+			final long startTime = SystemClock.uptimeMillis();
+			final Bitmap bitmap = bitmapFetcher.getBitmap(imageToLoad);
+			if (bitmap != null)
+			{
+				if (!bitmapFetcher.isNetworkFetcher())
+					metrics.addLocalLoad();
+				metrics.addDecodeTime(SystemClock.uptimeMillis() - startTime);
+				metrics.addBitmapBytes(BitmapPool.getBitmapSize(bitmap));
 			}
 
+			// Save to file cache. Does nothing if fetcher already stored original bytes there.
+			if (bitmap != null && imageToLoad.params.useFileCache && !isCancelled()
+					&& imageCache.putToFile(imageToLoad.getFileName(), bitmap, imageToLoad.getCancelSignal()) && BuildConfig.DEBUG
+					&& AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.d(ImageLoader.TAG, "Saving to file cache. " + imageToLoad.bitmapInfo.getUniqueName());
+
+			finish(bitmap);
+		}
+
+		/**
+		 * Queues next stage after file cache miss.
+		 */
+		private void executeLoad()
+		{
+			if (bitmapFetcher.isNetworkFetcher())
+			{
+				stage = STAGE_FETCH;
+				executor.executeNetwork(this);
+			}
+			else
+			{
+				stage = STAGE_DECODE;
+				executor.executeDecode(this);
+			}
+		}
+
+		/**
+		 * Processes bitmap, delivers the result and stores processed bitmap to file cache if needed.
+		 */
+		private void finish(Bitmap bitmap)
+		{
 			// Process image
 			if (bitmap != null && !isCancelled())
 			{
 				final ImageProcessor imageProcessor = imageToLoad.params.imageProcessor;
 				if (imageProcessor != null)
+				{
+					final long startTime = SystemClock.uptimeMillis();
+					final Bitmap source = bitmap;
 					bitmap = imageProcessor.processImage(bitmap);
+					metrics.addProcessTime(SystemClock.uptimeMillis() - startTime);
+					if (bitmap != null && bitmap != source)
+						metrics.addBitmapBytes(BitmapPool.getBitmapSize(bitmap));
+				}
 			}
 
+			deliver(bitmap);
+
+			// Written after result is posted, so compression does not delay the image
+			if (bitmap != null && imageToLoad.params.useProcessedFileCache && !isCancelled()
+					&& imageCache.putProcessedToFile(imageToLoad, bitmap, imageToLoad.getCancelSignal()) && BuildConfig.DEBUG
+					&& AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.d(ImageLoader.TAG, "Saving to processed file cache. " + imageToLoad.bitmapInfo.getUniqueName());
+		}
+
+		/**
+		 * Puts processed bitmap to memory cache and delivers the result.
+		 */
+		private void deliver(Bitmap bitmap)
+		{
 			// Put to memory
 			if (bitmap != null && imageToLoad.params.useMemoryCache)
 			{
 				synchronized (imageCache)
 				{
-					if (imageCache.putToMemory(imageToLoad.memoryName, bitmap) && BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+					if (imageCache.putToMemory(imageToLoad.memoryKey, bitmap) && BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
 						Log.d(ImageLoader.TAG, "Saving to memory cache. " + imageToLoad.bitmapInfo.getUniqueName());
 				}
+			}
+
+			postResult(bitmap);
+		}
+
+		/**
+		 * Queues revalidation if cached source is stale. Stale image is already delivered, views are reloaded only if it has changed.
+		 */
+		private void revalidateIfStale()
+		{
+			if (!bitmapFetcher.isStale(imageToLoad))
+				return;
 
+			final String fileName = imageToLoad.getFileName();
+			synchronized (revalidatingFiles)
+			{
+				if (!revalidatingFiles.add(fileName))
+					return;
 			}
 
-			return bitmap;
+			try
+			{
+				executor.executeNetwork(new RevalidateTask(this));
+			}
+			catch (RejectedExecutionException e)
+			{
+				synchronized (revalidatingFiles)
+				{
+					revalidatingFiles.remove(fileName);
+				}
+				e.printStackTrace();
+			}
 		}
 
-		@Override
-		protected void onPostExecute(Bitmap bitmap)
+		private void skipDecode()
+		{
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.d(ImageLoader.TAG, "Prefetched to file cache. " + imageToLoad.bitmapInfo.getUniqueName());
+
+			decodeSkipped = true;
+			postResult(null);
+		}
+
+		private void postResult(final Bitmap bitmap)
 		{
 			if (isCancelled())
-			{
-				bitmap = null;
 				return;
-			}
 
-			final ImageView imageView = imageToLoad.getImageView();
-			if (imageView != null && bitmap != null && imageToLoad.getGetBitmapTask() == this)
+			handler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					onPostExecute(bitmap);
+				}
+			});
+		}
+	}
+
+	// RevalidateTask
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Revalidates stale image on network thread with low priority. Uses its own request, so it is not cancelled together with the task that
+	 * delivered stale image.
+	 */
+	private class RevalidateTask extends ImageTask
+	{
+		private final GetBitmapTask	getBitmapTask;
+		private final ImageToLoad	imageToLoad;
+
+		public RevalidateTask(GetBitmapTask getBitmapTask)
+		{
+			super(PRIORITY_LOW);
+			this.getBitmapTask = getBitmapTask;
+			this.imageToLoad = new ImageToLoad(null, getBitmapTask.imageToLoad.bitmapInfo, getBitmapTask.imageToLoad.params);
+		}
+
+		@Override
+		public void run()
+		{
+			if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+				Log.d(ImageLoader.TAG, "Revalidating. " + imageToLoad.bitmapInfo.getUniqueName());
+
+			metrics.addRevalidation();
+			final boolean changed;
+			try
 			{
-				setBitmap(imageView, bitmap, imageToLoad.params.placeholder);
+				changed = getBitmapTask.bitmapFetcher.revalidate(imageToLoad);
 			}
+			finally
+			{
+				metrics.addBytesDownloaded(imageToLoad.takeBytesDownloaded());
+				synchronized (revalidatingFiles)
+				{
+					revalidatingFiles.remove(imageToLoad.getFileName());
+				}
+			}
+
+			if (!changed)
+				return;
 
-			if (imageToLoad.params.listener != null)
-				imageToLoad.params.listener.onImageLoaderFinished(imageToLoad, bitmap);
+			metrics.addRevalidationUpdate();
+			handler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					reloadChanged(getBitmapTask.imageToLoadList);
+				}
+			});
+		}
+	}
+
+	// ViewPin
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Bitmap that is pinned for view. Reference is queued when view is garbage collected without being released.
+	 */
+	private static class ViewPin extends WeakReference<ImageView>
+	{
+		public final ImageKey	memoryKey;
+		public final Bitmap		bitmap;
+		public boolean			pinned		= true;
+
+		public ViewPin(ImageView imageView, ImageKey memoryKey, Bitmap bitmap, ReferenceQueue<ImageView> queue)
+		{
+			super(imageView, queue);
+			this.memoryKey = memoryKey;
+			this.bitmap = bitmap;
 		}
 	}
 
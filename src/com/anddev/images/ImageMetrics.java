@@ -0,0 +1,417 @@
+package com.anddev.images;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.SystemClock;
+
+/**
+ * Counts where images come from and how long every step takes. Use {@link #getSnapshot()} to read current values or
+ * {@link #setOnMetricsListener(OnMetricsListener, long)} to get them periodically. Values can be used to tune cache sizes and thread pools.
+ * <p>
+ * Counters are updated from all loader threads without locks, so snapshot values can be a few events apart from each other.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class ImageMetrics
+{
+	private final ImageCache	imageCache;
+
+	private final AtomicLong	requests			= new AtomicLong();
+	private final AtomicLong	memoryHits			= new AtomicLong();
+	private final AtomicLong	processedFileHits	= new AtomicLong();
+	private final AtomicLong	fileHits			= new AtomicLong();
+	private final AtomicLong	networkLoads		= new AtomicLong();
+	private final AtomicLong	localLoads			= new AtomicLong();
+	private final AtomicLong	cancellations		= new AtomicLong();
+	private final AtomicLong	revalidations		= new AtomicLong();
+	private final AtomicLong	revalidationUpdates	= new AtomicLong();
+	private final AtomicLong	bytesDownloaded		= new AtomicLong();
+	private final AtomicLong	bitmapBytes			= new AtomicLong();
+
+	private final Histogram		queueWait			= new Histogram();
+	private final Histogram		downloadTime		= new Histogram();
+	private final Histogram		decodeTime			= new Histogram();
+	private final Histogram		processTime			= new Histogram();
+
+	private OnMetricsListener	onMetricsListener	= null;
+	private long				listenerInterval	= 0;
+	private long				lastNotifyTime		= 0;
+
+	public ImageMetrics(ImageCache imageCache)
+	{
+		this.imageCache = imageCache;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @return Current values.
+	 */
+	public Snapshot getSnapshot()
+	{
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Sets all counters and histograms to zero.
+	 */
+	public void reset()
+	{
+		requests.set(0);
+		memoryHits.set(0);
+		processedFileHits.set(0);
+		fileHits.set(0);
+		networkLoads.set(0);
+		localLoads.set(0);
+		cancellations.set(0);
+		revalidations.set(0);
+		revalidationUpdates.set(0);
+		bytesDownloaded.set(0);
+		bitmapBytes.set(0);
+		queueWait.reset();
+		downloadTime.reset();
+		decodeTime.reset();
+		processTime.reset();
+	}
+
+	/**
+	 * Sets listener that gets snapshot on UI thread after images are loaded, but not more often than given interval. Must be called from UI
+	 * thread.
+	 * 
+	 * @param onMetricsListener
+	 *            Listener or {@code null}.
+	 * @param intervalMillis
+	 *            Minimum time between two callbacks in milliseconds.
+	 */
+	public void setOnMetricsListener(OnMetricsListener onMetricsListener, long intervalMillis)
+	{
+		this.onMetricsListener = onMetricsListener;
+		this.listenerInterval = intervalMillis;
+		this.lastNotifyTime = SystemClock.uptimeMillis();
+	}
+
+	public void addRequest()
+	{
+		requests.incrementAndGet();
+	}
+
+	public void addMemoryHit()
+	{
+		memoryHits.incrementAndGet();
+	}
+
+	public void addProcessedFileHit()
+	{
+		processedFileHits.incrementAndGet();
+	}
+
+	public void addFileHit()
+	{
+		fileHits.incrementAndGet();
+	}
+
+	public void addNetworkLoad()
+	{
+		networkLoads.incrementAndGet();
+	}
+
+	public void addLocalLoad()
+	{
+		localLoads.incrementAndGet();
+	}
+
+	public void addCancellation()
+	{
+		cancellations.incrementAndGet();
+	}
+
+	public void addRevalidation()
+	{
+		revalidations.incrementAndGet();
+	}
+
+	public void addRevalidationUpdate()
+	{
+		revalidationUpdates.incrementAndGet();
+	}
+
+	public void addBytesDownloaded(long bytes)
+	{
+		bytesDownloaded.addAndGet(bytes);
+	}
+
+	/**
+	 * @param bytes
+	 *            Size of bitmap that was decoded or created by processor.
+	 */
+	public void addBitmapBytes(long bytes)
+	{
+		bitmapBytes.addAndGet(bytes);
+	}
+
+	public void addQueueWait(long millis)
+	{
+		queueWait.add(millis);
+	}
+
+	public void addDownloadTime(long millis)
+	{
+		downloadTime.add(millis);
+	}
+
+	public void addDecodeTime(long millis)
+	{
+		decodeTime.add(millis);
+	}
+
+	public void addProcessTime(long millis)
+	{
+		processTime.add(millis);
+	}
+
+	/**
+	 * Calls listener if interval has passed since last call. Called from UI thread.
+	 */
+	void notifyListener()
+	{
+		if (onMetricsListener == null)
+			return;
+
+		final long now = SystemClock.uptimeMillis();
+		if (now - lastNotifyTime < listenerInterval)
+			return;
+
+		lastNotifyTime = now;
+		onMetricsListener.onMetrics(getSnapshot());
+	}
+
+	// Snapshot
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Values of all metrics at the time snapshot was taken.
+	 */
+	public static class Snapshot
+	{
+		/** Calls to {@link ImageLoader#loadImage(android.widget.ImageView, com.anddev.images.info.BitmapInfo, ImageParams)}. */
+		public final long				requests;
+		public final long				memoryHits;
+		public final long				processedFileHits;
+		public final long				fileHits;
+		/** Images that were downloaded. */
+		public final long				networkLoads;
+		/** Images that were decoded from local sources, like files and resources. */
+		public final long				localLoads;
+		public final long				cancellations;
+		/** Stale files that were checked with conditional request. */
+		public final long				revalidations;
+		/** Revalidations that found changed image. Others were not modified or failed. */
+		public final long				revalidationUpdates;
+		public final long				bytesDownloaded;
+		/**
+		 * Size of bitmaps that were decoded or created by processors. This is the upper bound of allocated memory, because some of these bitmaps
+		 * reused memory of bitmaps from {@link BitmapPool}.
+		 */
+		public final long				bitmapBytes;
+
+		/** Time that tasks spent in queue before every stage. */
+		public final HistogramSnapshot	queueWait;
+		public final HistogramSnapshot	downloadTime;
+		/** Time of decodes from source and from file cache. */
+		public final HistogramSnapshot	decodeTime;
+		public final HistogramSnapshot	processTime;
+
+		/** Size of bitmaps in memory cache, including pinned bitmaps. */
+		public final int				memoryCacheSize;
+		public final int				memoryCacheMaxSize;
+		/** Size of bitmaps that are pinned by displayed views. */
+		public final int				pinnedSize;
+		/** Size of all files in file cache, including processed bitmaps. */
+		public final long				fileCacheSize;
+
+		private Snapshot(ImageMetrics metrics)
+		{
+			requests = metrics.requests.get();
+			memoryHits = metrics.memoryHits.get();
+			processedFileHits = metrics.processedFileHits.get();
+			fileHits = metrics.fileHits.get();
+			networkLoads = metrics.networkLoads.get();
+			localLoads = metrics.localLoads.get();
+			cancellations = metrics.cancellations.get();
+			revalidations = metrics.revalidations.get();
+			revalidationUpdates = metrics.revalidationUpdates.get();
+			bytesDownloaded = metrics.bytesDownloaded.get();
+			bitmapBytes = metrics.bitmapBytes.get();
+			queueWait = new HistogramSnapshot(metrics.queueWait);
+			downloadTime = new HistogramSnapshot(metrics.downloadTime);
+			decodeTime = new HistogramSnapshot(metrics.decodeTime);
+			processTime = new HistogramSnapshot(metrics.processTime);
+			pinnedSize = metrics.imageCache.getPinnedSize();
+			memoryCacheSize = metrics.imageCache.getMemoryCacheSize() + pinnedSize;
+			memoryCacheMaxSize = metrics.imageCache.getMemoryCacheMaxSize();
+			fileCacheSize = metrics.imageCache.getFileCacheSize();
+		}
+
+		/**
+		 * @return Part of requests that were served from memory cache, from {@code 0} to {@code 1}.
+		 */
+		public float getMemoryHitRatio()
+		{
+			return requests > 0 ? (float) memoryHits / requests : 0;
+		}
+
+		/**
+		 * @return Part of memory cache misses that were served from file cache, from {@code 0} to {@code 1}.
+		 */
+		public float getFileHitRatio()
+		{
+			final long misses = processedFileHits + fileHits + networkLoads + localLoads;
+			return misses > 0 ? (float) (processedFileHits + fileHits) / misses : 0;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "requests=" + requests + ", memoryHits=" + memoryHits + ", processedFileHits=" + processedFileHits + ", fileHits=" + fileHits
+					+ ", networkLoads=" + networkLoads + ", localLoads=" + localLoads + ", cancellations=" + cancellations + ", revalidations="
+					+ revalidations + ", revalidationUpdates=" + revalidationUpdates + ", bytesDownloaded=" + bytesDownloaded + ", bitmapBytes="
+					+ bitmapBytes + ", queueWait=[" + queueWait + "], downloadTime=[" + downloadTime + "], decodeTime=[" + decodeTime
+					+ "], processTime=[" + processTime + "], memoryCache=" + memoryCacheSize + "/" + memoryCacheMaxSize + ", pinned=" + pinnedSize
+					+ ", fileCache=" + fileCacheSize;
+		}
+	}
+
+	// HistogramSnapshot
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Durations in milliseconds grouped to buckets. Bucket {@code i} contains values up to {@link #getBucketBound(int)}.
+	 */
+	public static class HistogramSnapshot
+	{
+		public final long		count;
+		public final long		sum;
+		public final long		max;
+		private final long[]	buckets;
+
+		private HistogramSnapshot(Histogram histogram)
+		{
+			count = histogram.count.get();
+			sum = histogram.sum.get();
+			max = histogram.max.get();
+			buckets = new long[Histogram.BUCKET_COUNT];
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i] = histogram.buckets.get(i);
+		}
+
+		/**
+		 * @return Upper bound of bucket in milliseconds, inclusive. Last bucket has no bound, so {@link Long#MAX_VALUE} is returned.
+		 */
+		public static long getBucketBound(int bucket)
+		{
+			return bucket < Histogram.BUCKET_COUNT - 1 ? 1L << bucket : Long.MAX_VALUE;
+		}
+
+		public int getBucketCount()
+		{
+			return buckets.length;
+		}
+
+		public long getBucket(int bucket)
+		{
+			return buckets[bucket];
+		}
+
+		public float getAverage()
+		{
+			return count > 0 ? (float) sum / count : 0;
+		}
+
+		/**
+		 * @param percentile
+		 *            Percentile from {@code 0} to {@code 100}.
+		 * @return Upper bound of bucket that contains given percentile. For the last bucket {@link #max} is returned.
+		 */
+		public long getPercentile(float percentile)
+		{
+			long total = 0;
+			for (int i = 0; i < buckets.length; i++)
+				total += buckets[i];
+
+			final long target = (long) Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < buckets.length - 1; i++)
+			{
+				seen += buckets[i];
+				if (seen >= target && seen > 0)
+					return Math.min(getBucketBound(i), max);
+			}
+			return max;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "count=" + count + ", avg=" + getAverage() + ", p50=" + getPercentile(50) + ", p90=" + getPercentile(90) + ", max=" + max;
+		}
+	}
+
+	// Histogram
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class Histogram
+	{
+		/** Buckets up to 1, 2, 4 ... 8192 ms and one bucket for longer durations. */
+		public static final int			BUCKET_COUNT	= 15;
+
+		public final AtomicLongArray	buckets			= new AtomicLongArray(BUCKET_COUNT);
+		public final AtomicLong			count			= new AtomicLong();
+		public final AtomicLong			sum				= new AtomicLong();
+		public final AtomicLong			max				= new AtomicLong();
+
+		public void add(long millis)
+		{
+			millis = Math.max(0, millis);
+			buckets.incrementAndGet(getBucket(millis));
+			count.incrementAndGet();
+			sum.addAndGet(millis);
+
+			long currentMax;
+			while (millis > (currentMax = max.get()) && !max.compareAndSet(currentMax, millis))
+				;
+		}
+
+		public void reset()
+		{
+			for (int i = 0; i < BUCKET_COUNT; i++)
+				buckets.set(i, 0);
+			count.set(0);
+			sum.set(0);
+			max.set(0);
+		}
+
+		private static int getBucket(long millis)
+		{
+			// Smallest bucket with bound 2^i that is not smaller than value
+			final int bucket = millis <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(millis - 1);
+			return Math.min(bucket, BUCKET_COUNT - 1);
+		}
+	}
+
+	// OnMetricsListener
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public static interface OnMetricsListener
+	{
+		/**
+		 * Called on UI thread.
+		 * 
+		 * @param snapshot
+		 *            Current values.
+		 */
+		public void onMetrics(Snapshot snapshot);
+	}
+}
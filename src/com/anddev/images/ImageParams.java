@@ -1,6 +1,7 @@
 package com.anddev.images;
 
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
 import android.widget.ImageView;
 
 import com.anddev.images.ImageLoader.ImageLoaderListener;
@@ -34,6 +35,24 @@ public class ImageParams
 	/** If {@code true}, bitmap will be stored in memory cache. Default {@code true}. */
 	public boolean				useMemoryCache;
 
+	/**
+	 * If {@code true}, processed bitmap will be stored in separate file cache at the size it is displayed. Next time it is decoded without
+	 * sampling and processing. Useful for expensive processors and for small thumbnails of big images. Default {@code false}.
+	 */
+	public boolean				useProcessedFileCache;
+
+	/**
+	 * Config for decoded bitmaps. If {@code null}, {@link Config#RGB_565} is used for opaque formats (JPEG) and {@link Config#ARGB_8888} for others.
+	 * Default {@code null}.
+	 */
+	public Config				bitmapConfig;
+
+	/**
+	 * If {@code true}, low resolution preview is shown while image is downloading. Preview is available for progressive JPEGs and JPEGs with EXIF
+	 * thumbnail. Default {@code false}.
+	 */
+	public boolean				showPreview;
+
 	/** Placeholder to set on {@link ImageView} while image is loading. Default {@code null}. */
 	public Bitmap				placeholder;
 
@@ -57,6 +76,9 @@ public class ImageParams
 		setImagesAutomatically = true;
 		useFileCache = true;
 		useMemoryCache = true;
+		useProcessedFileCache = false;
+		bitmapConfig = null;
+		showPreview = false;
 		imageProcessor = null;
 		placeholder = null;
 		listener = null;
@@ -1,6 +1,7 @@
 package com.anddev.images;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -22,26 +23,84 @@ public class ImageToLoad
 {
 	public final BitmapInfo					bitmapInfo;
 	public final ImageParams				params;
-	public final String						fileName;
-	public final String						memoryName;
+	/** Key for memory cache. Cheap to create, so it is used on UI thread instead of {@link #getMemoryName()}. */
+	public final ImageKey					memoryKey;
 
 	private final WeakReference<ImageView>	imageViewReference;
+	private final AtomicLong				bytesDownloaded		= new AtomicLong();
+	private String							fileName;
+	private String							memoryName;
+	private CancelSignal					cancelSignal;
 
 	public ImageToLoad(ImageView imageView, BitmapInfo bitmapInfo, ImageParams params)
 	{
 		this.bitmapInfo = bitmapInfo;
 		this.params = params;
 
-		this.fileName = StringUtils.md5(bitmapInfo.getUniqueName());
-		this.memoryName = StringUtils.md5(bitmapInfo.getUniqueName() + "_" + params.width + "x" + params.height
-						+ (params.imageProcessor != null ? "_" + params.imageProcessor.getUniqueId() : ""));
+		final String processorId = params.imageProcessor != null ? params.imageProcessor.getUniqueId() : null;
+		this.memoryKey = new ImageKey(bitmapInfo.getUniqueName(), params.width, params.height, params.scaleType, processorId, params.bitmapConfig);
 
-		imageViewReference = new WeakReference<ImageView>(imageView);
+		imageViewReference = imageView != null ? new WeakReference<ImageView>(imageView) : null;
 	}
 
 	// Public methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
+	/**
+	 * Name of original image in file cache. MD5 is calculated on first call, so call this only from background threads.
+	 * 
+	 * @return MD5 of {@link BitmapInfo#getUniqueName()}.
+	 */
+	public String getFileName()
+	{
+		if (fileName == null)
+			fileName = StringUtils.md5(memoryKey.sourceId);
+		return fileName;
+	}
+
+	/**
+	 * Name of loaded and processed image. MD5 is calculated on first call, so call this only from background threads.
+	 * 
+	 * @return MD5 of {@link #memoryKey}.
+	 */
+	public String getMemoryName()
+	{
+		if (memoryName == null)
+			memoryName = StringUtils.md5(memoryKey.toString());
+		return memoryName;
+	}
+
+	/**
+	 * Signal that is cancelled when work for this image is cancelled. Fetchers use it to stop downloading and decoding.
+	 * 
+	 * @return Cancel signal. Created on first call.
+	 */
+	public synchronized CancelSignal getCancelSignal()
+	{
+		if (cancelSignal == null)
+			cancelSignal = new CancelSignal();
+		return cancelSignal;
+	}
+
+	/**
+	 * Counts bytes that fetcher downloaded for this image. Loader adds them to {@link ImageMetrics}. Can be called from any thread.
+	 * 
+	 * @param bytes
+	 *            Number of downloaded bytes.
+	 */
+	public void addBytesDownloaded(long bytes)
+	{
+		bytesDownloaded.addAndGet(bytes);
+	}
+
+	/**
+	 * @return Bytes downloaded since the previous call.
+	 */
+	public long takeBytesDownloaded()
+	{
+		return bytesDownloaded.getAndSet(0);
+	}
+
 	/**
 	 * @return {@link ImageView} reference or {@code null}.
 	 */
@@ -53,6 +112,14 @@ public class ImageToLoad
 		return null;
 	}
 
+	/**
+	 * @return {@code true} if this request was created by {@link ImageLoader#prefetch(BitmapInfo, ImageParams)} and has no view.
+	 */
+	public boolean isPrefetch()
+	{
+		return imageViewReference == null;
+	}
+
 	/**
 	 * Uses {@link BitmapInfo} to get {@link BitmapFetcher} and load bitmap.
 	 * 
@@ -66,7 +133,7 @@ public class ImageToLoad
 	}
 
 	/**
-	 * Tries to cancel queued work for this bitmap.
+	 * Tries to cancel queued work for {@link ImageView}. Work is only cancelled if no other views are waiting for the same bitmap.
 	 * 
 	 * @return {@code true} if canceled; {@code false} otherwise.
 	 */
@@ -74,11 +141,11 @@ public class ImageToLoad
 	{
 		GetBitmapTask getBitmapTask = getGetBitmapTask();
 
-		if (getBitmapTask != null)
+		// Cancelled task will not deliver anything
+		if (getBitmapTask != null && !getBitmapTask.isCancelled())
 		{
-			final String tempMemoryName = getBitmapTask.imageToLoad.memoryName;
-			if (!tempMemoryName.equalsIgnoreCase(memoryName))
-				getBitmapTask.cancel(true);
+			if (!getBitmapTask.imageToLoad.memoryKey.equals(memoryKey))
+				getBitmapTask.detach(getImageView());
 			else
 				return false;
 		}
@@ -0,0 +1,79 @@
+package com.anddev.images;
+
+import android.content.Context;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+/**
+ * Pauses {@link ImageLoader} while list is flinging, so images of rows that are only visible for a moment are not loaded. When list stops,
+ * loading resumes for rows that are visible.
+ * <p>
+ * Set it with {@link AbsListView#setOnScrollListener(OnScrollListener)}. Other scroll listeners, like {@link PrefetchScrollListener}, can be
+ * chained with {@link #setOnScrollListener(OnScrollListener)}.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class PauseOnScrollListener implements OnScrollListener
+{
+	private final ImageLoader	imageLoader;
+	private final boolean		pauseOnTouchScroll;
+	private OnScrollListener	onScrollListener;
+
+	/**
+	 * @param context
+	 *            Context.
+	 * @param pauseOnTouchScroll
+	 *            If {@code true}, loader is paused while user scrolls with finger too. Otherwise it is paused only during fling.
+	 */
+	public PauseOnScrollListener(Context context, boolean pauseOnTouchScroll)
+	{
+		this.imageLoader = ImageLoader.getInstance(context);
+		this.pauseOnTouchScroll = pauseOnTouchScroll;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState)
+	{
+		switch (scrollState)
+		{
+			case SCROLL_STATE_FLING:
+				imageLoader.pause();
+				break;
+
+			case SCROLL_STATE_TOUCH_SCROLL:
+				if (pauseOnTouchScroll)
+					imageLoader.pause();
+				else
+					imageLoader.resume();
+				break;
+
+			case SCROLL_STATE_IDLE:
+			default:
+				imageLoader.resume();
+				break;
+		}
+
+		if (onScrollListener != null)
+			onScrollListener.onScrollStateChanged(view, scrollState);
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+	{
+		if (onScrollListener != null)
+			onScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+	}
+
+	/**
+	 * @param onScrollListener
+	 *            Listener that will get all scroll callbacks too.
+	 */
+	public void setOnScrollListener(OnScrollListener onScrollListener)
+	{
+		this.onScrollListener = onScrollListener;
+	}
+}
@@ -0,0 +1,142 @@
+package com.anddev.images;
+
+import android.content.Context;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+import com.anddev.images.info.BitmapInfo;
+
+/**
+ * Prefetches images of rows that will come on screen next. Rows are taken in the direction list is scrolling, so when user flings, images are
+ * already decoded by the time rows become visible.
+ * <p>
+ * Set it with {@link AbsListView#setOnScrollListener(OnScrollListener)}. If you need your own scroll listener too, pass it to
+ * {@link #setOnScrollListener(OnScrollListener)}.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class PrefetchScrollListener implements OnScrollListener
+{
+	private final ImageLoader		imageLoader;
+	private final PrefetchAdapter	prefetchAdapter;
+	private final int				prefetchCount;
+	private OnScrollListener		onScrollListener;
+
+	private int						lastFirstVisibleItem	= -1;
+	private boolean					scrollingDown			= true;
+
+	/** Rows that were already prefetched. From inclusive, to exclusive. */
+	private int						prefetchedFrom			= 0;
+	private int						prefetchedTo			= 0;
+
+	/**
+	 * @param context
+	 *            Context.
+	 * @param prefetchAdapter
+	 *            Tells which images to prefetch for given row.
+	 * @param prefetchCount
+	 *            Number of rows to prefetch after the last visible row or before the first visible row, depending on scroll direction.
+	 */
+	public PrefetchScrollListener(Context context, PrefetchAdapter prefetchAdapter, int prefetchCount)
+	{
+		this.imageLoader = ImageLoader.getInstance(context);
+		this.prefetchAdapter = prefetchAdapter;
+		this.prefetchCount = prefetchCount;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState)
+	{
+		if (onScrollListener != null)
+			onScrollListener.onScrollStateChanged(view, scrollState);
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+	{
+		if (onScrollListener != null)
+			onScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+
+		// Prefetch is ignored while paused, so rows are requested later
+		if (visibleItemCount <= 0 || totalItemCount <= 0 || imageLoader.isPaused())
+			return;
+
+		// Direction only changes when first visible item changes
+		if (lastFirstVisibleItem >= 0 && firstVisibleItem != lastFirstVisibleItem)
+			scrollingDown = firstVisibleItem > lastFirstVisibleItem;
+		lastFirstVisibleItem = firstVisibleItem;
+
+		final int from;
+		final int to;
+		if (scrollingDown)
+		{
+			from = Math.min(firstVisibleItem + visibleItemCount, totalItemCount);
+			to = Math.min(from + prefetchCount, totalItemCount);
+		}
+		else
+		{
+			to = Math.max(firstVisibleItem, 0);
+			from = Math.max(to - prefetchCount, 0);
+		}
+
+		// onScroll() is called for every pixel, so only rows that were not prefetched yet are requested
+		for (int position = from; position < to; position++)
+		{
+			if (position < prefetchedFrom || position >= prefetchedTo)
+				prefetchAdapter.prefetch(this, position);
+		}
+		prefetchedFrom = from;
+		prefetchedTo = to;
+	}
+
+	/**
+	 * Prefetches image. Call this from {@link PrefetchAdapter#prefetch(PrefetchScrollListener, int)}.
+	 * 
+	 * @see ImageLoader#prefetch(BitmapInfo, ImageParams)
+	 */
+	public void prefetch(BitmapInfo bitmapInfo, ImageParams params)
+	{
+		imageLoader.prefetch(bitmapInfo, params);
+	}
+
+	/**
+	 * Forgets which rows were prefetched. Call this when data of the list changes.
+	 */
+	public void reset()
+	{
+		lastFirstVisibleItem = -1;
+		scrollingDown = true;
+		prefetchedFrom = 0;
+		prefetchedTo = 0;
+	}
+
+	/**
+	 * @param onScrollListener
+	 *            Listener that will get all scroll callbacks too.
+	 */
+	public void setOnScrollListener(OnScrollListener onScrollListener)
+	{
+		this.onScrollListener = onScrollListener;
+	}
+
+	// PrefetchAdapter
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public static interface PrefetchAdapter
+	{
+		/**
+		 * Called for every row that should be prefetched. Call {@link PrefetchScrollListener#prefetch(BitmapInfo, ImageParams)} for images in that
+		 * row. Use the same params as the row uses when it is bound, so memory cache is hit.
+		 * 
+		 * @param listener
+		 *            Listener that requests prefetch.
+		 * @param position
+		 *            Position in the list. Includes header views.
+		 */
+		public void prefetch(PrefetchScrollListener listener, int position);
+	}
+}
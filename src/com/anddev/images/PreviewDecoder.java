@@ -0,0 +1,358 @@
+package com.anddev.images;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+
+import com.anddev.utils.ImageUtils;
+
+/**
+ * Decodes low resolution preview of JPEG image while it is still downloading. Downloaded bytes are passed to {@link #update(byte[], int)} as they
+ * arrive.
+ * <p>
+ * Preview is either EXIF thumbnail (only if it has the same aspect ratio as image) or, for progressive JPEG, first scan decoded with big
+ * inSampleSize. Baseline JPEG without thumbnail has no preview, because partially decoded baseline image is mostly empty.
+ * </p>
+ * <p>
+ * Only the beginning of the image is kept in memory. If preview is not available in first {@link #MAX_DATA_SIZE} bytes, decoder gives up.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class PreviewDecoder
+{
+	private static final int	MAX_DATA_SIZE			= 512 * 1024;
+	private static final int	INITIAL_DATA_SIZE		= 16 * 1024;
+
+	/** Preview is decoded at this fraction of target size. It is only visible for a moment, so quality is not important. */
+	private static final int	PREVIEW_SCALE			= 4;
+
+	private static final int	TAG_THUMBNAIL_OFFSET	= 0x0201;
+	private static final int	TAG_THUMBNAIL_LENGTH	= 0x0202;
+
+	private final ImageParams	params;
+	private byte[]				data					= new byte[INITIAL_DATA_SIZE];
+	private int					size					= 0;
+	private boolean				finished				= false;
+
+	/** Position of next marker. */
+	private int					position				= 0;
+	/** Position in entropy coded data of the first scan or -1 if first scan is not reached yet. */
+	private int					scanPosition			= -1;
+
+	private int					width					= 0;
+	private int					height					= 0;
+	private boolean				progressive				= false;
+	private int					thumbnailOffset			= -1;
+	private int					thumbnailLength			= -1;
+
+	/**
+	 * @param params
+	 *            Params of the image. Used to pick preview size and config.
+	 */
+	public PreviewDecoder(ImageParams params)
+	{
+		this.params = params;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Adds downloaded bytes and tries to decode preview.
+	 * 
+	 * @param buffer
+	 *            Buffer with downloaded bytes.
+	 * @param count
+	 *            Number of bytes in buffer.
+	 * @return Preview or {@code null} if preview is not available yet. Preview is returned only once.
+	 */
+	public Bitmap update(byte[] buffer, int count)
+	{
+		if (finished || count <= 0)
+			return null;
+
+		append(buffer, Math.min(count, MAX_DATA_SIZE - size));
+
+		Bitmap preview = null;
+		try
+		{
+			preview = parse();
+		}
+		catch (OutOfMemoryError e)
+		{
+			// Preview is optional
+		}
+
+		if (preview != null || size >= MAX_DATA_SIZE)
+			finished = true;
+
+		// Memory is not needed anymore
+		if (finished)
+			data = null;
+
+		return preview;
+	}
+
+	/**
+	 * @return {@code true} if preview was already returned or it will not be available.
+	 */
+	public boolean isFinished()
+	{
+		return finished;
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private void append(byte[] buffer, int count)
+	{
+		if (size + count > data.length)
+		{
+			final byte[] newData = new byte[Math.min(MAX_DATA_SIZE, Math.max(size + count, data.length * 2))];
+			System.arraycopy(data, 0, newData, 0, size);
+			data = newData;
+		}
+		System.arraycopy(buffer, 0, data, size, count);
+		size += count;
+	}
+
+	private Bitmap parse()
+	{
+		if (position == 0)
+		{
+			if (size < 2)
+				return null;
+
+			// Not a JPEG
+			if ((data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8)
+			{
+				finished = true;
+				return null;
+			}
+			position = 2;
+		}
+
+		if (scanPosition >= 0)
+			return parseFirstScan();
+
+		while (position + 4 <= size)
+		{
+			if ((data[position] & 0xFF) != 0xFF)
+			{
+				finished = true;
+				return null;
+			}
+
+			final int marker = data[position + 1] & 0xFF;
+			if (marker == 0xFF)
+			{
+				// Fill byte
+				position++;
+				continue;
+			}
+
+			if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7))
+			{
+				// Marker without length
+				position += 2;
+				continue;
+			}
+
+			if (marker == 0xD9)
+			{
+				finished = true;
+				return null;
+			}
+
+			// Wait until whole segment is downloaded
+			final int segmentStart = position + 4;
+			final int segmentEnd = position + 2 + readShort(position + 2, false);
+			if (segmentEnd > size)
+				return null;
+
+			if (marker == 0xE1)
+			{
+				readExifThumbnail(segmentStart, segmentEnd);
+			}
+			else if (isStartOfFrame(marker) && segmentEnd - segmentStart >= 5)
+			{
+				height = readShort(segmentStart + 1, false);
+				width = readShort(segmentStart + 3, false);
+				progressive = marker == 0xC2 || marker == 0xC6 || marker == 0xCA || marker == 0xCE;
+
+				final Bitmap thumbnail = decodeThumbnail();
+				if (thumbnail != null)
+					return thumbnail;
+			}
+			else if (marker == 0xDA)
+			{
+				if (!progressive || width <= 0 || height <= 0)
+				{
+					finished = true;
+					return null;
+				}
+
+				position = segmentEnd;
+				scanPosition = segmentEnd;
+				return parseFirstScan();
+			}
+
+			position = segmentEnd;
+		}
+
+		return null;
+	}
+
+	private Bitmap parseFirstScan()
+	{
+		while (scanPosition + 1 < size)
+		{
+			if ((data[scanPosition] & 0xFF) != 0xFF)
+			{
+				scanPosition++;
+				continue;
+			}
+
+			final int next = data[scanPosition + 1] & 0xFF;
+			if (next == 0xFF)
+			{
+				scanPosition++;
+			}
+			else if (next == 0x00 || (next >= 0xD0 && next <= 0xD7))
+			{
+				// Stuffed byte or restart marker - still the same scan
+				scanPosition += 2;
+			}
+			else
+			{
+				// End of first scan. End image here, so decoder does not wait for other scans.
+				data[scanPosition + 1] = (byte) 0xD9;
+				final int targetWidth = params.width > 0 ? params.width : width;
+				final int targetHeight = params.height > 0 ? params.height : height;
+				final int sampleSize = ImageUtils.calculateInSampleSize(width, height, Math.max(1, targetWidth / PREVIEW_SCALE),
+						Math.max(1, targetHeight / PREVIEW_SCALE));
+				return decode(0, scanPosition + 2, sampleSize);
+			}
+		}
+
+		return null;
+	}
+
+	private void readExifThumbnail(int start, int end)
+	{
+		// "Exif\0\0" header followed by TIFF structure
+		if (end - start < 14 || data[start] != 'E' || data[start + 1] != 'x' || data[start + 2] != 'i' || data[start + 3] != 'f')
+			return;
+
+		final int tiff = start + 6;
+		final boolean littleEndian;
+		if (data[tiff] == 'I' && data[tiff + 1] == 'I')
+			littleEndian = true;
+		else if (data[tiff] == 'M' && data[tiff + 1] == 'M')
+			littleEndian = false;
+		else
+			return;
+
+		// IFD0 is only skipped. Its next IFD offset points to IFD1, which describes thumbnail.
+		final int ifd0 = getOffset(tiff, readInt(tiff + 4, littleEndian), end, 2);
+		if (ifd0 < 0)
+			return;
+
+		final int nextIfdOffset = ifd0 + 2 + readShort(ifd0, littleEndian) * 12;
+		if (nextIfdOffset + 4 > end)
+			return;
+
+		final int ifd1 = getOffset(tiff, readInt(nextIfdOffset, littleEndian), end, 2);
+		if (ifd1 < 0)
+			return;
+
+		int offset = -1;
+		int length = -1;
+		final int entryCount = readShort(ifd1, littleEndian);
+		for (int i = 0; i < entryCount; i++)
+		{
+			final int entry = ifd1 + 2 + i * 12;
+			if (entry + 12 > end)
+				break;
+
+			final int tag = readShort(entry, littleEndian);
+			final int type = readShort(entry + 2, littleEndian);
+			final int value = type == 3 ? readShort(entry + 8, littleEndian) : readInt(entry + 8, littleEndian);
+			if (tag == TAG_THUMBNAIL_OFFSET)
+				offset = value;
+			else if (tag == TAG_THUMBNAIL_LENGTH)
+				length = value;
+		}
+
+		if (length <= 0)
+			return;
+
+		offset = getOffset(tiff, offset, end, length);
+		if (offset < 0)
+			return;
+
+		thumbnailOffset = offset;
+		thumbnailLength = length;
+	}
+
+	/**
+	 * Decodes EXIF thumbnail if it has the same aspect ratio as image. Thumbnails of wide images often have black bars, so they are not used.
+	 */
+	private Bitmap decodeThumbnail()
+	{
+		if (thumbnailOffset < 0 || width <= 0 || height <= 0)
+			return null;
+
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, thumbnailOffset, thumbnailLength, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0)
+			return null;
+
+		// Allow 5% difference
+		final long imageRatio = (long) width * options.outHeight;
+		final long thumbnailRatio = (long) options.outWidth * height;
+		if (Math.abs(imageRatio - thumbnailRatio) * 20 > imageRatio)
+			return null;
+
+		return decode(thumbnailOffset, thumbnailLength, 1);
+	}
+
+	private Bitmap decode(int offset, int length, int sampleSize)
+	{
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = params.bitmapConfig != null ? params.bitmapConfig : Config.RGB_565;
+		return BitmapFactory.decodeByteArray(data, offset, length, options);
+	}
+
+	/**
+	 * @return Absolute position of offset from TIFF header or -1 if given number of bytes at that position is not inside the segment.
+	 */
+	private static int getOffset(int tiff, int offset, int end, int length)
+	{
+		if (offset <= 0 || offset > end - tiff - length)
+			return -1;
+		return tiff + offset;
+	}
+
+	private static boolean isStartOfFrame(int marker)
+	{
+		return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+	}
+
+	private int readShort(int offset, boolean littleEndian)
+	{
+		final int b0 = data[offset] & 0xFF;
+		final int b1 = data[offset + 1] & 0xFF;
+		return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+	}
+
+	private int readInt(int offset, boolean littleEndian)
+	{
+		final int high = readShort(littleEndian ? offset + 2 : offset, littleEndian);
+		final int low = readShort(littleEndian ? offset : offset + 2, littleEndian);
+		return (high << 16) | low;
+	}
+}
@@ -3,6 +3,7 @@ package com.anddev.images.info;
 import android.content.Context;
 import android.graphics.Bitmap;
 
+import com.anddev.images.ImageExecutor;
 import com.anddev.images.ImageToLoad;
 
 /**
@@ -30,5 +31,70 @@ public abstract class BitmapInfo
 		// ------------------------------------------------------------------------------------------------------------------------------------
 
 		public abstract Bitmap getBitmap(ImageToLoad imageToLoad);
+
+		// Public methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * @return {@code true} if {@link #fetch(ImageToLoad, PreviewListener)} uses network. Such fetchers are executed on network threads of {@link ImageExecutor}.
+		 */
+		public boolean isNetworkFetcher()
+		{
+			return false;
+		}
+
+		/**
+		 * Makes sure that source of the bitmap is available locally, so {@link #getBitmap(ImageToLoad)} will only need to decode it. Called before
+		 * {@link #getBitmap(ImageToLoad)}. Default implementation does nothing.
+		 * 
+		 * @param imageToLoad
+		 *            Image to fetch.
+		 * @param previewListener
+		 *            Listener for low resolution preview that fetcher can deliver while source is still loading. Can be {@code null}.
+		 * @return {@code true} if source is available; {@code false} otherwise.
+		 */
+		public boolean fetch(ImageToLoad imageToLoad, PreviewListener previewListener)
+		{
+			return true;
+		}
+
+		/**
+		 * Called after image was loaded from file cache. Default implementation returns {@code false}.
+		 * 
+		 * @param imageToLoad
+		 *            Image that was loaded.
+		 * @return {@code true} if cached source is stale and should be checked with {@link #revalidate(ImageToLoad)}; {@code false} otherwise.
+		 */
+		public boolean isStale(ImageToLoad imageToLoad)
+		{
+			return false;
+		}
+
+		/**
+		 * Checks if cached source is still valid and replaces it if it's not. Called on network thread after stale source was displayed. Default
+		 * implementation does nothing.
+		 * 
+		 * @param imageToLoad
+		 *            Image to revalidate.
+		 * @return {@code true} if source has changed and image should be loaded again; {@code false} otherwise.
+		 */
+		public boolean revalidate(ImageToLoad imageToLoad)
+		{
+			return false;
+		}
+	}
+
+	// PreviewListener
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public static interface PreviewListener
+	{
+		/**
+		 * Called from fetcher thread when preview is available. Preview is not processed.
+		 * 
+		 * @param preview
+		 *            Low resolution preview of the image.
+		 */
+		public void onPreview(Bitmap preview);
 	}
 }
\ No newline at end of file
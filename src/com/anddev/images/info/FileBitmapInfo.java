@@ -1,17 +1,31 @@
 package com.anddev.images.info;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 
 import com.anddev.AndDevSettings;
 import com.anddev.BuildConfig;
+import com.anddev.images.BitmapPool;
+import com.anddev.images.CancelSignal;
+import com.anddev.images.CancelSignal.OnCancelListener;
+import com.anddev.images.DecodePlan;
 import com.anddev.images.ImageLoader;
+import com.anddev.images.ImageParams;
 import com.anddev.images.ImageToLoad;
-import com.anddev.utils.ImageUtils;
+import com.anddev.utils.APIUtils;
 
 /**
  * Loads bitmap from file.
@@ -44,7 +58,12 @@ public class FileBitmapInfo extends BitmapInfo
 
 	public static class FileBitmapFetcher extends BitmapFetcher
 	{
-		private static FileBitmapFetcher	instance	= null;
+		protected static final int			IO_BUFFER_SIZE	= 16 * 1024;
+
+		/** Bounds of most images are at the beginning of file, but JPEG can have big EXIF block before them. */
+		protected static final int			MARK_LIMIT		= 128 * 1024;
+
+		private static FileBitmapFetcher	instance		= null;
 
 		public static FileBitmapFetcher getInstance(Context context)
 		{
@@ -61,31 +80,212 @@ public class FileBitmapInfo extends BitmapInfo
 		@Override
 		public Bitmap getBitmap(ImageToLoad imageToLoad)
 		{
+			final File bitmapFile = getBitmapFile(imageToLoad);
+			if (bitmapFile == null)
+				return null;
+
+			return decodeFile(bitmapFile, imageToLoad, new int[2]);
+		}
+
+		// Public methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Decodes bitmap from file. File is opened only once: bounds are read from marked stream, then the same stream is reset and decoded.
+		 * 
+		 * @param bitmapFile
+		 *            File to decode.
+		 * @param imageToLoad
+		 *            Image that is loaded.
+		 * @param sourceSize
+		 *            Array of two elements: width and height of the image in file. If they are known, bounds are not decoded at all. If they are
+		 *            {@code 0} and bounds are decoded, this array will contain decoded size after this call.
+		 * @return Decoded bitmap or {@code null}.
+		 */
+		public Bitmap decodeFile(File bitmapFile, ImageToLoad imageToLoad, int[] sourceSize)
+		{
+			final StreamSource source = new StreamSource(bitmapFile);
+			try
+			{
+				return decode(source, imageToLoad, sourceSize);
+			}
+			finally
+			{
+				source.close();
+			}
+		}
+
+		/**
+		 * Decodes bitmap from file that is already open. Decoder reads file descriptor directly, so file is not opened again and its bytes are not
+		 * copied through Java stream buffers. File is read from the beginning every time and is not closed.
+		 * 
+		 * @param in
+		 *            Open file to decode.
+		 * @param imageToLoad
+		 *            Image that is loaded.
+		 * @param sourceSize
+		 *            Array of two elements: width and height of the image in file. Same as in {@link #decodeFile(File, ImageToLoad, int[])}.
+		 * @return Decoded bitmap or {@code null}.
+		 */
+		public Bitmap decodeFileDescriptor(FileInputStream in, ImageToLoad imageToLoad, int[] sourceSize)
+		{
+			return decode(new DescriptorSource(in), imageToLoad, sourceSize);
+		}
+
+		/**
+		 * Decodes bitmap from bytes that are already in memory.
+		 * 
+		 * @param data
+		 *            Array that contains encoded image.
+		 * @param offset
+		 *            Offset of the image in array.
+		 * @param length
+		 *            Length of the image.
+		 * @param imageToLoad
+		 *            Image that is loaded.
+		 * @param sourceSize
+		 *            Array of two elements: width and height of the image. Same as in {@link #decodeFile(File, ImageToLoad, int[])}.
+		 * @return Decoded bitmap or {@code null}.
+		 */
+		public Bitmap decodeByteArray(byte[] data, int offset, int length, ImageToLoad imageToLoad, int[] sourceSize)
+		{
+			return decode(new ByteArraySource(data, offset, length), imageToLoad, sourceSize);
+		}
+
+		// Protected methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		protected File getBitmapFile(ImageToLoad imageToLoad)
+		{
+			return new File(imageToLoad.bitmapInfo.getUniqueName());
+		}
+
+		protected static InputStream openStream(File file) throws FileNotFoundException
+		{
+			return new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE);
+		}
+
+		/**
+		 * Moves stream back to marked position. If mark was invalidated because decoder read too far, file is opened again.
+		 * 
+		 * @return Stream positioned at the mark.
+		 */
+		protected static InputStream resetStream(InputStream in, File file) throws IOException
+		{
+			try
+			{
+				in.reset();
+				return in;
+			}
+			catch (IOException e)
+			{
+				closeStream(in);
+				return openStream(file);
+			}
+		}
+
+		protected static void closeStream(Closeable closeable)
+		{
+			if (closeable != null)
+			{
+				try
+				{
+					closeable.close();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * Gives {@link BitmapFactory.Options#inBitmap} back to pool after failed decode and clears it from options.
+		 * 
+		 * @return {@code true} if options had bitmap from pool; {@code false} otherwise.
+		 */
+		@TargetApi(11)
+		protected static boolean returnInBitmap(BitmapPool bitmapPool, BitmapFactory.Options options)
+		{
+			if (!APIUtils.SUPPORTS_HONEYCOMB || options.inBitmap == null)
+				return false;
+
+			if (!bitmapPool.put(options.inBitmap))
+				options.inBitmap.recycle();
+			options.inBitmap = null;
+			return true;
+		}
+
+		// Private methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		private Bitmap decode(DecodeSource source, ImageToLoad imageToLoad, int[] sourceSize)
+		{
+			final CancelSignal cancelSignal = imageToLoad.getCancelSignal();
+			if (cancelSignal.isCancelled())
+				return null;
+
 			Bitmap bitmap = null;
-			File bitmapFile = getBitmapFile(imageToLoad);
 
 			try
 			{
 				final BitmapFactory.Options options = new BitmapFactory.Options();
-				options.inPurgeable = true;
-				options.inInputShareable = true;
+				cancelSignal.setOnCancelListener(new CancelDecodeListener(options));
+				if (!APIUtils.SUPPORTS_HONEYCOMB)
+				{
+					options.inPurgeable = true;
+					options.inInputShareable = source.isInputShareable();
+				}
+				options.inPreferredConfig = source.chooseConfig(imageToLoad.params);
 
 				// If image has width and height, set inSampleSize to scale it
 				final int width = imageToLoad.params.width;
 				final int height = imageToLoad.params.height;
 				if (width > 0 && height > 0)
 				{
-					options.inJustDecodeBounds = true;
-					BitmapFactory.decodeFile(bitmapFile.getAbsolutePath(), options);
-					options.inSampleSize = ImageUtils.calculateInSampleSize(options.outWidth, options.outHeight, width, height);
-					options.inJustDecodeBounds = false;
+					if (sourceSize[0] <= 0 || sourceSize[1] <= 0)
+					{
+						options.inJustDecodeBounds = true;
+						source.decode(options);
+						options.inJustDecodeBounds = false;
+						sourceSize[0] = options.outWidth;
+						sourceSize[1] = options.outHeight;
+						if (cancelSignal.isCancelled())
+							return null;
+					}
+					else
+					{
+						options.outWidth = sourceSize[0];
+						options.outHeight = sourceSize[1];
+					}
+					DecodePlan.apply(options, options.outWidth, options.outHeight, imageToLoad.params, true);
 				}
 
+				// Try to decode into unused bitmap
+				final BitmapPool bitmapPool = BitmapPool.getInstance();
+				bitmapPool.addInBitmapOptions(options);
+
 				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
-					Log.d(ImageLoader.TAG, "inSampleSize = " + options.inSampleSize + ". " + imageToLoad.bitmapInfo.getUniqueName());
+					Log.d(ImageLoader.TAG, "inSampleSize = " + options.inSampleSize + ", inDensity = " + options.inDensity + ", inTargetDensity = "
+							+ options.inTargetDensity + ", inPreferredConfig = " + options.inPreferredConfig + ". " + imageToLoad.bitmapInfo.getUniqueName());
 
 				// Load bitmap from file
-				bitmap = BitmapFactory.decodeFile(bitmapFile.getAbsolutePath(), options);
+				try
+				{
+					bitmap = source.decode(options);
+				}
+				catch (IllegalArgumentException e)
+				{
+					// Bitmap from pool is not compatible
+					if (!returnInBitmap(bitmapPool, options))
+						throw e;
+					bitmap = source.decode(options);
+				}
+
+				// Cancelled or failed decode did not use bitmap from pool
+				if (bitmap == null)
+					returnInBitmap(bitmapPool, options);
+				DecodePlan.restoreDensity(context, bitmap, options);
 			}
 			catch (OutOfMemoryError e)
 			{
@@ -97,16 +297,180 @@ public class FileBitmapInfo extends BitmapInfo
 				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
 					Log.w(ImageLoader.TAG, "Error loading bitmap. " + imageToLoad.bitmapInfo.getUniqueName() + ". " + e.getMessage());
 			}
+			finally
+			{
+				cancelSignal.setOnCancelListener(null);
+			}
 
 			return bitmap;
 		}
 
-		// Protected methods
+		// DecodeSource
 		// ------------------------------------------------------------------------------------------------------------------------------------
 
-		protected File getBitmapFile(ImageToLoad imageToLoad)
+		/**
+		 * Encoded image that is decoded from the beginning every time.
+		 */
+		private static abstract class DecodeSource
 		{
-			return new File(imageToLoad.bitmapInfo.getUniqueName());
+			/**
+			 * @return {@code true} if purgeable bitmap can read the source again later instead of keeping its own copy.
+			 */
+			public boolean isInputShareable()
+			{
+				return true;
+			}
+
+			public abstract Config chooseConfig(ImageParams params) throws IOException;
+
+			public abstract Bitmap decode(BitmapFactory.Options options) throws IOException;
+		}
+
+		// StreamSource
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Reads file through buffered stream. Stream is marked before every decode and reset before the next one.
+		 */
+		private static class StreamSource extends DecodeSource
+		{
+			private final File	file;
+			private InputStream	in		= null;
+			private boolean		read	= false;
+
+			public StreamSource(File file)
+			{
+				this.file = file;
+			}
+
+			@Override
+			public Config chooseConfig(ImageParams params) throws IOException
+			{
+				return DecodePlan.chooseConfig(params, getStream());
+			}
+
+			@Override
+			public Bitmap decode(BitmapFactory.Options options) throws IOException
+			{
+				final InputStream in = getStream();
+				in.mark(MARK_LIMIT);
+				read = true;
+				return BitmapFactory.decodeStream(in, null, options);
+			}
+
+			public void close()
+			{
+				closeStream(in);
+			}
+
+			private InputStream getStream() throws IOException
+			{
+				if (in == null)
+				{
+					in = openStream(file);
+				}
+				else if (read)
+				{
+					in = resetStream(in, file);
+					read = false;
+				}
+				return in;
+			}
+		}
+
+		// DescriptorSource
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Reads open file through its descriptor. Position is moved back to the beginning before every read, because older decoders leave it
+		 * wherever they stopped.
+		 */
+		private static class DescriptorSource extends DecodeSource
+		{
+			/** Header is small, so there's no need for default buffer. */
+			private static final int		HEADER_BUFFER_SIZE	= 16;
+
+			private final FileInputStream	in;
+
+			public DescriptorSource(FileInputStream in)
+			{
+				this.in = in;
+			}
+
+			/**
+			 * File is read by other decoders later and decoder that reads it again would move their position.
+			 */
+			@Override
+			public boolean isInputShareable()
+			{
+				return false;
+			}
+
+			@Override
+			public Config chooseConfig(ImageParams params) throws IOException
+			{
+				// Buffered stream is not closed, because it would close the file
+				in.getChannel().position(0);
+				return DecodePlan.chooseConfig(params, new BufferedInputStream(in, HEADER_BUFFER_SIZE));
+			}
+
+			@Override
+			public Bitmap decode(BitmapFactory.Options options) throws IOException
+			{
+				in.getChannel().position(0);
+				return BitmapFactory.decodeFileDescriptor(in.getFD(), null, options);
+			}
+		}
+
+		// ByteArraySource
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		private static class ByteArraySource extends DecodeSource
+		{
+			private final byte[]	data;
+			private final int		offset;
+			private final int		length;
+
+			public ByteArraySource(byte[] data, int offset, int length)
+			{
+				this.data = data;
+				this.offset = offset;
+				this.length = length;
+			}
+
+			@Override
+			public Config chooseConfig(ImageParams params) throws IOException
+			{
+				return DecodePlan.chooseConfig(params, new ByteArrayInputStream(data, offset, length));
+			}
+
+			@Override
+			public Bitmap decode(BitmapFactory.Options options)
+			{
+				return BitmapFactory.decodeByteArray(data, offset, length, options);
+			}
+		}
+
+		// CancelDecodeListener
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Stops decoder that uses given options. Decoder returns {@code null} then.
+		 */
+		protected static class CancelDecodeListener implements OnCancelListener
+		{
+			private final BitmapFactory.Options	options;
+
+			public CancelDecodeListener(BitmapFactory.Options options)
+			{
+				this.options = options;
+			}
+
+			@Override
+			public void onCancel()
+			{
+				options.requestCancelDecode();
+			}
 		}
 	}
 }
\ No newline at end of file
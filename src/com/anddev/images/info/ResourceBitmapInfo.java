@@ -1,15 +1,25 @@
 package com.anddev.images.info;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
+import android.util.TypedValue;
 
 import com.anddev.AndDevSettings;
 import com.anddev.BuildConfig;
+import com.anddev.images.BitmapPool;
+import com.anddev.images.CancelSignal;
+import com.anddev.images.DecodePlan;
 import com.anddev.images.ImageLoader;
 import com.anddev.images.ImageToLoad;
-import com.anddev.utils.ImageUtils;
+import com.anddev.images.info.FileBitmapInfo.FileBitmapFetcher;
+import com.anddev.images.info.FileBitmapInfo.FileBitmapFetcher.CancelDecodeListener;
+import com.anddev.utils.APIUtils;
 
 public class ResourceBitmapInfo extends BitmapInfo
 {
@@ -54,29 +64,70 @@ public class ResourceBitmapInfo extends BitmapInfo
 		@Override
 		public Bitmap getBitmap(ImageToLoad imageToLoad)
 		{
+			final Resources resources = context.getResources();
+			final int resId = ((ResourceBitmapInfo) imageToLoad.bitmapInfo).resId;
+			final TypedValue value = new TypedValue();
+			final CancelSignal cancelSignal = imageToLoad.getCancelSignal();
+			if (cancelSignal.isCancelled())
+				return null;
+
 			Bitmap bitmap = null;
+			InputStream in = null;
+
 			try
 			{
+				// Resource is opened only once. Bounds are read from marked stream, then the same stream is reset and decoded.
+				in = resources.openRawResource(resId, value);
+
 				final BitmapFactory.Options options = new BitmapFactory.Options();
-				options.inPurgeable = true;
-				options.inInputShareable = true;
+				cancelSignal.setOnCancelListener(new CancelDecodeListener(options));
+				if (!APIUtils.SUPPORTS_HONEYCOMB)
+				{
+					options.inPurgeable = true;
+					options.inInputShareable = true;
+				}
+				options.inPreferredConfig = DecodePlan.chooseConfig(imageToLoad.params, in);
 
 				// If image has width and height, set inSampleSize to scale it
 				final int width = imageToLoad.params.width;
 				final int height = imageToLoad.params.height;
 				if (width > 0 && height > 0)
 				{
+					in.mark(FileBitmapFetcher.MARK_LIMIT);
 					options.inJustDecodeBounds = true;
-					BitmapFactory.decodeResource(context.getResources(), ((ResourceBitmapInfo) imageToLoad.bitmapInfo).resId, options);
-					options.inSampleSize = ImageUtils.calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+					BitmapFactory.decodeResourceStream(resources, value, in, null, options);
+					DecodePlan.apply(options, options.outWidth, options.outHeight, imageToLoad.params, false);
 					options.inJustDecodeBounds = false;
+					in = resetStream(in, resources, resId, value);
+					if (cancelSignal.isCancelled())
+						return null;
 				}
 
+				// Try to decode into unused bitmap
+				final BitmapPool bitmapPool = BitmapPool.getInstance();
+				bitmapPool.addInBitmapOptions(options);
+
 				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
 					Log.d(ImageLoader.TAG, "inSampleSize = " + options.inSampleSize + ". " + imageToLoad.bitmapInfo.getUniqueName());
 
 				// Load bitmap from resource
-				bitmap = BitmapFactory.decodeResource(context.getResources(), ((ResourceBitmapInfo) imageToLoad.bitmapInfo).resId, options);
+				in.mark(FileBitmapFetcher.MARK_LIMIT);
+				try
+				{
+					bitmap = BitmapFactory.decodeResourceStream(resources, value, in, null, options);
+				}
+				catch (IllegalArgumentException e)
+				{
+					// Bitmap from pool is not compatible
+					if (!FileBitmapFetcher.returnInBitmap(bitmapPool, options))
+						throw e;
+					in = resetStream(in, resources, resId, value);
+					bitmap = BitmapFactory.decodeResourceStream(resources, value, in, null, options);
+				}
+
+				// Cancelled or failed decode did not use bitmap from pool
+				if (bitmap == null)
+					FileBitmapFetcher.returnInBitmap(bitmapPool, options);
 			}
 			catch (OutOfMemoryError e)
 			{
@@ -90,8 +141,33 @@ public class ResourceBitmapInfo extends BitmapInfo
 					Log.w(ImageLoader.TAG, "Error loading bitmap. " + imageToLoad.bitmapInfo.getUniqueName());
 				e.printStackTrace();
 			}
+			finally
+			{
+				cancelSignal.setOnCancelListener(null);
+				FileBitmapFetcher.closeStream(in);
+			}
 
 			return bitmap;
 		}
+
+		// Private methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Moves stream back to marked position. If that's not possible, resource is opened again.
+		 */
+		private InputStream resetStream(InputStream in, Resources resources, int resId, TypedValue value)
+		{
+			try
+			{
+				in.reset();
+				return in;
+			}
+			catch (IOException e)
+			{
+				FileBitmapFetcher.closeStream(in);
+				return resources.openRawResource(resId, value);
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package com.anddev.images.info;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.anddev.images.ImageCache;
+import com.anddev.images.ImageToLoad;
+
+/**
+ * Image that is available in several resolutions, like {@code http://cdn.example.com/avatar_{variant}.jpg} with variants {@code small},
+ * {@code medium} and {@code large}. {@link com.anddev.images.ImageLoader} selects variant: the largest one on unmetered network and smaller one on
+ * metered network, unless larger one is already cached.
+ * <p>
+ * Every variant has its own URL, so it has its own entries in memory and file cache.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class TemplateURLBitmapInfo extends URLBitmapInfo
+{
+	/** Placeholder in URL template that is replaced by variant. */
+	public static final String	VARIANT	= "{variant}";
+
+	public final String			urlTemplate;
+	private final String[]		urls;
+	private final int			meteredVariant;
+	private final int			variant;
+
+	/**
+	 * @param urlTemplate
+	 *            URL with {@link #VARIANT} placeholder.
+	 * @param meteredVariant
+	 *            Index of variant that is loaded on metered network.
+	 * @param variants
+	 *            Variants from the smallest to the largest.
+	 */
+	public TemplateURLBitmapInfo(String urlTemplate, int meteredVariant, String... variants)
+	{
+		this(urlTemplate, createUrls(urlTemplate, variants), meteredVariant, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param variant
+	 *            Index of variant. Clamped to existing variants, so {@link Integer#MAX_VALUE} selects the largest one.
+	 */
+	private TemplateURLBitmapInfo(String urlTemplate, String[] urls, int meteredVariant, int variant)
+	{
+		super(urls[clampVariant(variant, urls)]);
+		this.urlTemplate = urlTemplate;
+		this.urls = urls;
+		this.meteredVariant = clampVariant(meteredVariant, urls);
+		this.variant = clampVariant(variant, urls);
+	}
+
+	@Override
+	public BitmapFetcher getBitmapFetcher(Context context)
+	{
+		return TemplateURLBitmapFetcher.getInstance(context);
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public int getVariantCount()
+	{
+		return urls.length;
+	}
+
+	/**
+	 * @return Index of variant that this info loads. The largest one by default.
+	 */
+	public int getVariant()
+	{
+		return variant;
+	}
+
+	public boolean isLargestVariant()
+	{
+		return variant == urls.length - 1;
+	}
+
+	/**
+	 * @return Index of variant that is loaded on metered network.
+	 */
+	public int getMeteredVariant()
+	{
+		return meteredVariant;
+	}
+
+	/**
+	 * @param variant
+	 *            Index of variant.
+	 * @return Info that loads given variant of the same image.
+	 */
+	public TemplateURLBitmapInfo withVariant(int variant)
+	{
+		if (variant == this.variant)
+			return this;
+
+		return new TemplateURLBitmapInfo(urlTemplate, urls, meteredVariant, variant);
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static int clampVariant(int variant, String[] urls)
+	{
+		return Math.max(0, Math.min(variant, urls.length - 1));
+	}
+
+	private static String[] createUrls(String urlTemplate, String[] variants)
+	{
+		if (variants == null || variants.length == 0)
+			return new String[] { urlTemplate };
+
+		final String[] urls = new String[variants.length];
+		for (int i = 0; i < variants.length; i++)
+			urls[i] = urlTemplate.replace(VARIANT, variants[i]);
+		return urls;
+	}
+
+	// TemplateURLBitmapFetcher
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Before downloading a variant, checks if a larger one is already in file cache and decodes it instead.
+	 */
+	public static class TemplateURLBitmapFetcher extends URLBitmapFetcher
+	{
+		private static TemplateURLBitmapFetcher	instance	= null;
+
+		public static TemplateURLBitmapFetcher getInstance(Context context)
+		{
+			if (instance == null)
+				instance = new TemplateURLBitmapFetcher(context);
+			return instance;
+		}
+
+		protected TemplateURLBitmapFetcher(Context context)
+		{
+			super(context);
+		}
+
+		@Override
+		public Bitmap getBitmap(ImageToLoad imageToLoad)
+		{
+			final String largerFileName = getLargerCachedFileName(imageToLoad);
+			if (largerFileName != null)
+				return ImageCache.getInstance(context).getFromFile(largerFileName, imageToLoad);
+
+			return super.getBitmap(imageToLoad);
+		}
+
+		@Override
+		public boolean fetch(ImageToLoad imageToLoad, PreviewListener previewListener)
+		{
+			if (getLargerCachedFileName(imageToLoad) != null)
+				return true;
+
+			return super.fetch(imageToLoad, previewListener);
+		}
+
+		// Private methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * @return File cache key of the largest variant that is larger than requested one and is cached, or {@code null}.
+		 */
+		private String getLargerCachedFileName(ImageToLoad imageToLoad)
+		{
+			if (!imageToLoad.params.useFileCache)
+				return null;
+
+			final TemplateURLBitmapInfo bitmapInfo = (TemplateURLBitmapInfo) imageToLoad.bitmapInfo;
+			final ImageCache imageCache = ImageCache.getInstance(context);
+			for (int i = bitmapInfo.getVariantCount() - 1; i > bitmapInfo.getVariant(); i--)
+			{
+				final ImageToLoad largerImage = new ImageToLoad(null, bitmapInfo.withVariant(i), imageToLoad.params);
+				if (imageCache.containsFile(largerImage.getFileName()))
+					return largerImage.getFileName();
+			}
+
+			return null;
+		}
+	}
+}
@@ -1,14 +1,14 @@
 package com.anddev.images.info;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.Locale;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -16,10 +16,17 @@ import android.util.Log;
 
 import com.anddev.AndDevSettings;
 import com.anddev.BuildConfig;
+import com.anddev.images.CancelSignal;
+import com.anddev.images.DiskCache;
+import com.anddev.images.ImageCache;
 import com.anddev.images.ImageLoader;
 import com.anddev.images.ImageToLoad;
+import com.anddev.images.PreviewDecoder;
 import com.anddev.images.info.FileBitmapInfo.FileBitmapFetcher;
-import com.anddev.utils.NetworkUtils;
+import com.anddev.images.transport.HttpURLConnectionTransport;
+import com.anddev.images.transport.Transport;
+import com.anddev.images.transport.Transport.Request;
+import com.anddev.images.transport.Transport.Response;
 
 public class URLBitmapInfo extends BitmapInfo
 {
@@ -47,10 +54,14 @@ public class URLBitmapInfo extends BitmapInfo
 
 	public static class URLBitmapFetcher extends FileBitmapFetcher
 	{
-		protected static final int		IO_BUFFER_SIZE	= 8 * 1024;
+		/** Used when response does not say how long it is fresh. */
+		public static final long		DEFAULT_MAX_AGE	= 24 * 60 * 60 * 1000L;
 
 		private static URLBitmapFetcher	instance		= null;
 
+		private volatile long			defaultMaxAge	= DEFAULT_MAX_AGE;
+		private volatile Transport		transport		= new HttpURLConnectionTransport();
+
 		public static URLBitmapFetcher getInstance(Context context)
 		{
 			if (instance == null)
@@ -66,48 +77,229 @@ public class URLBitmapInfo extends BitmapInfo
 		@Override
 		public Bitmap getBitmap(ImageToLoad imageToLoad)
 		{
+			// Downloaded file is in file cache, so decode it from there. It might already be downloaded in fetch().
+			if (imageToLoad.params.useFileCache)
+			{
+				final ImageCache imageCache = ImageCache.getInstance(context);
+				if (!imageCache.containsFile(imageToLoad.getFileName()) && !downloadBitmap(imageToLoad, null))
+					return null;
+				return imageCache.getFromFile(imageToLoad);
+			}
+
 			final Bitmap bitmap = super.getBitmap(imageToLoad);
 
-			final File tempFile = new File(context.getCacheDir(), imageToLoad.fileName);
+			// Temporary file is only used when file cache is off
+			final File tempFile = new File(context.getCacheDir(), imageToLoad.getFileName());
 			if (tempFile.exists())
 				tempFile.delete();
 
 			return bitmap;
 		}
 
+		@Override
+		public boolean isNetworkFetcher()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean fetch(ImageToLoad imageToLoad, PreviewListener previewListener)
+		{
+			return downloadBitmap(imageToLoad, imageToLoad.params.showPreview ? previewListener : null);
+		}
+
+		/**
+		 * Cached file is stale when its max-age has passed. Files without ETag or Last-Modified are never stale, because they can't be revalidated
+		 * without downloading them again.
+		 */
+		@Override
+		public boolean isStale(ImageToLoad imageToLoad)
+		{
+			if (!imageToLoad.params.useFileCache)
+				return false;
+
+			final DiskCache.Metadata metadata = ImageCache.getInstance(context).getFileMetadata(imageToLoad.getFileName());
+			return metadata != null && metadata.hasValidators() && metadata.isStale();
+		}
+
+		/**
+		 * Sends conditional request with cached ETag and Last-Modified. If image was not modified, only its freshness is updated and body is not
+		 * transferred. Otherwise new image replaces cached file.
+		 */
+		@Override
+		public boolean revalidate(ImageToLoad imageToLoad)
+		{
+			final ImageCache imageCache = ImageCache.getInstance(context);
+			final DiskCache.Metadata metadata = imageCache.getFileMetadata(imageToLoad.getFileName());
+			if (metadata == null || !metadata.hasValidators())
+				return false;
+
+			downloadBitmap(imageToLoad, null, metadata);
+			return !metadata.isSameVersion(imageCache.getFileMetadata(imageToLoad.getFileName()));
+		}
+
+		/**
+		 * Replaces transport that sends requests. Default is {@link HttpURLConnectionTransport}.
+		 * 
+		 * @param transport
+		 *            New transport.
+		 */
+		public void setTransport(Transport transport)
+		{
+			if (transport != null)
+				this.transport = transport;
+		}
+
+		/**
+		 * Sets how long downloaded files are fresh when response has no Cache-Control max-age or Expires header.
+		 * 
+		 * @param maxAge
+		 *            Time in milliseconds. Use {@code 0} to never revalidate such files.
+		 */
+		public void setDefaultMaxAge(long maxAge)
+		{
+			this.defaultMaxAge = maxAge;
+		}
+
+		// Protected methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * {@link #getBitmap(ImageToLoad)} decodes file cache entries straight from {@link ImageCache}, because packed entries don't have a file of
+		 * their own. File is only needed when file cache is off.
+		 * 
+		 * @return Downloaded file or {@code null}. When file cache is used, {@code null} is also returned for packed entries.
+		 */
 		@Override
 		protected File getBitmapFile(ImageToLoad imageToLoad)
 		{
+			// Bitmap might already be downloaded in fetch()
+			if (imageToLoad.params.useFileCache)
+			{
+				final ImageCache imageCache = ImageCache.getInstance(context);
+				if (!imageCache.containsFile(imageToLoad.getFileName()) && !downloadBitmap(imageToLoad, null))
+					return null;
+				return imageCache.getCachedFile(imageToLoad.getFileName());
+			}
+
+			final File tempFile = new File(context.getCacheDir(), imageToLoad.getFileName());
+			if (!tempFile.exists() && !downloadBitmap(imageToLoad, null))
+				return null;
+			return tempFile;
+		}
+
+		/**
+		 * Downloads bitmap. If file cache is used, original bytes are written straight to file cache, otherwise to temporary file.
+		 * 
+		 * @param imageToLoad
+		 *            Image to download.
+		 * @param previewListener
+		 *            If not {@code null}, gets preview decoded from the beginning of the image while the rest is downloading.
+		 * @return {@code true} if bitmap was downloaded; {@code false} otherwise.
+		 */
+		protected boolean downloadBitmap(ImageToLoad imageToLoad, PreviewListener previewListener)
+		{
+			return downloadBitmap(imageToLoad, previewListener, null);
+		}
+
+		/**
+		 * Downloads bitmap. If file cache is used, original bytes are written straight to file cache, otherwise to temporary file.
+		 * 
+		 * @param imageToLoad
+		 *            Image to download.
+		 * @param previewListener
+		 *            If not {@code null}, gets preview decoded from the beginning of the image while the rest is downloading.
+		 * @param cachedMetadata
+		 *            If not {@code null}, request is conditional. When server responds with 304 Not Modified, cached file is kept and only its
+		 *            metadata is updated.
+		 * @return {@code true} if bitmap was downloaded or cached one is still valid; {@code false} otherwise. Entry of file cache might be packed
+		 *         and have no file of its own, so read it through {@link ImageCache}.
+		 */
+		protected boolean downloadBitmap(ImageToLoad imageToLoad, PreviewListener previewListener, DiskCache.Metadata cachedMetadata)
+		{
+			final CancelSignal cancelSignal = imageToLoad.getCancelSignal();
+			if (cancelSignal.isCancelled())
+				return false;
+
 			// Create file to store bitmap
-			final File tempFile = new File(context.getCacheDir(), imageToLoad.fileName);
+			final ImageCache imageCache = ImageCache.getInstance(context);
+			final DiskCache.Editor editor = imageToLoad.params.useFileCache ? imageCache.editFile(imageToLoad.getFileName()) : null;
+			final File targetFile = editor != null ? editor.getFile() : new File(context.getCacheDir(), imageToLoad.getFileName());
+
+			// Setup request
+			final String url = ((URLBitmapInfo) imageToLoad.bitmapInfo).imageURL;
+			final Request request = new Request(url);
+			if (cachedMetadata != null)
+			{
+				if (cachedMetadata.etag != null)
+					request.setHeader("If-None-Match", cachedMetadata.etag);
+				if (cachedMetadata.lastModified > 0)
+					request.setDateHeader("If-Modified-Since", cachedMetadata.lastModified);
+			}
 
-			// Setup connection
-			NetworkUtils.disableConnectionReuseIfNecessary();
-			HttpURLConnection urlConnection = null;
-			BufferedOutputStream out = null;
-			URL url = null;
+			Response response = null;
+			OutputStream out = null;
+			long totalCount = 0;
 
 			try
 			{
-				// Download bitmap to temporary file
-				url = new URL(((URLBitmapInfo) imageToLoad.bitmapInfo).imageURL);
-
+				// Download bitmap to file
 				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
 					Log.d(ImageLoader.TAG, "Downloading bitmap to file. " + url);
 
-				urlConnection = (HttpURLConnection) url.openConnection();
-				final InputStream in = new BufferedInputStream(urlConnection.getInputStream(), IO_BUFFER_SIZE);
-				out = new BufferedOutputStream(new FileOutputStream(tempFile), IO_BUFFER_SIZE);
+				response = transport.execute(request, cancelSignal);
+				final int code = response.getCode();
+
+				// Cached file is still valid, so only its freshness is updated
+				if (cachedMetadata != null && code == HttpURLConnection.HTTP_NOT_MODIFIED)
+				{
+					if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+						Log.d(ImageLoader.TAG, "Not modified. " + url);
+
+					if (editor != null)
+						editor.abort();
+					imageCache.setFileMetadata(imageToLoad.getFileName(), readMetadata(response, cachedMetadata));
+					return imageCache.containsFile(imageToLoad.getFileName());
+				}
+
+				if (code < HttpURLConnection.HTTP_OK || code >= HttpURLConnection.HTTP_MULT_CHOICE)
+					throw new IOException("Unexpected response code " + code + ".");
 
-				int b;
-				while ((b = in.read()) != -1)
+				final InputStream in = response.getBody();
+				out = new FileOutputStream(targetFile);
+
+				final byte[] buffer = new byte[IO_BUFFER_SIZE];
+				final PreviewDecoder previewDecoder = previewListener != null ? new PreviewDecoder(imageToLoad.params) : null;
+				int count;
+				while ((count = in.read(buffer)) != -1)
 				{
-					out.write(b);
+					if (cancelSignal.isCancelled())
+						throw new InterruptedIOException("Cancelled");
+
+					out.write(buffer, 0, count);
+					totalCount += count;
+
+					if (previewDecoder != null && !previewDecoder.isFinished())
+					{
+						final Bitmap preview = previewDecoder.update(buffer, count);
+						if (preview != null)
+							previewListener.onPreview(preview);
+					}
 				}
 
-				in.close();
+				out.close();
+				out = null;
+
+				// Connection might be closed before whole body is received
+				final long contentLength = response.getContentLength();
+				if (contentLength >= 0 && contentLength != totalCount)
+					throw new IOException("Expected " + contentLength + " bytes, received " + totalCount + ".");
+
+				if (editor == null)
+					return true;
 
-				return tempFile;
+				editor.setMetadata(readMetadata(response, null));
+				return editor.commit();
 			}
 			catch (final MalformedURLException e)
 			{
@@ -117,31 +309,103 @@ public class URLBitmapInfo extends BitmapInfo
 			}
 			catch (final IOException e)
 			{
-				if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
-					Log.w(ImageLoader.TAG, "Failed downloading bitmap to file. " + url);
-				e.printStackTrace();
+				if (cancelSignal.isCancelled())
+				{
+					if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+						Log.d(ImageLoader.TAG, "Download cancelled. " + url);
+				}
+				else
+				{
+					if (BuildConfig.DEBUG && AndDevSettings.Logging.LOG_IMAGE_LOADER)
+						Log.w(ImageLoader.TAG, "Failed downloading bitmap to file. " + url);
+					e.printStackTrace();
+				}
 			}
 			finally
 			{
-				// Close connection
-				if (urlConnection != null)
-					urlConnection.disconnect();
+				imageToLoad.addBytesDownloaded(totalCount);
+				closeStream(out);
+
+				// Drains the rest of the body, so connection goes back to the pool
+				if (response != null)
+					response.close();
+			}
+
+			// Don't leave partially downloaded file
+			if (editor != null)
+				editor.abort();
+			else if (targetFile.exists())
+				targetFile.delete();
+
+			return false;
+		}
+
+		/**
+		 * Reads validators and freshness of the response.
+		 * 
+		 * @param response
+		 *            Received response.
+		 * @param cachedMetadata
+		 *            Metadata of cached file. 304 response does not have to repeat validators, so missing ones are taken from here. Can be
+		 *            {@code null}.
+		 * @return Metadata of the response.
+		 */
+		protected DiskCache.Metadata readMetadata(Response response, DiskCache.Metadata cachedMetadata)
+		{
+			String etag = response.getHeader("ETag");
+			long lastModified = response.getDateHeader("Last-Modified");
+			if (cachedMetadata != null)
+			{
+				if (etag == null)
+					etag = cachedMetadata.etag;
+				if (lastModified <= 0)
+					lastModified = cachedMetadata.lastModified;
+			}
 
-				// Close stream
-				if (out != null)
+			return new DiskCache.Metadata(etag, lastModified, getExpires(response));
+		}
+
+		// Private methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * @return Time after which response is stale. Cache-Control has priority over Expires and no-cache has priority over max-age.
+		 */
+		private long getExpires(Response response)
+		{
+			final long now = System.currentTimeMillis();
+			final String cacheControl = response.getHeader("Cache-Control");
+			long maxAge = -1;
+			if (cacheControl != null)
+			{
+				for (String directive : cacheControl.split(","))
 				{
-					try
-					{
-						out.close();
-					}
-					catch (final IOException e)
+					directive = directive.trim().toLowerCase(Locale.US);
+					if (directive.equals("no-cache"))
+						return now;
+
+					if (directive.startsWith("max-age="))
 					{
-						e.printStackTrace();
+						try
+						{
+							maxAge = Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+						}
+						catch (NumberFormatException e)
+						{
+							// Invalid max-age is ignored
+						}
 					}
 				}
 			}
 
-			return null;
+			if (maxAge >= 0)
+				return now + maxAge;
+
+			final long expiration = response.getDateHeader("Expires");
+			if (expiration > 0)
+				return expiration;
+
+			return defaultMaxAge > 0 ? now + defaultMaxAge : 0;
 		}
 	}
 }
\ No newline at end of file
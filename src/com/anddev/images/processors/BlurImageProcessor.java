@@ -0,0 +1,94 @@
+package com.anddev.images.processors;
+
+import android.graphics.Bitmap;
+
+/**
+ * Blurs image for backgrounds. Image is made smaller first and then blurred with {@link BoxBlurImageProcessor}, so blur with big radius is fast
+ * and uses little memory.
+ * <p>
+ * Result stays smaller than the source by downscale factor. {@link android.widget.ImageView} scales it back up, which is not visible on blurred
+ * image. When chained after {@link ScaleImageProcessor}, scaling and downscaling are done in one draw.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class BlurImageProcessor extends ChainImageProcessor
+{
+	public static final int	DEFAULT_DOWNSCALE	= 4;
+
+	private final String	uniqueId;
+
+	/**
+	 * @param radius
+	 *            Blur radius in pixels of the source image.
+	 */
+	public BlurImageProcessor(int radius)
+	{
+		this(radius, DEFAULT_DOWNSCALE);
+	}
+
+	/**
+	 * @param radius
+	 *            Blur radius in pixels of the source image.
+	 * @param downscale
+	 *            Image is made this many times smaller before blur. Use {@code 1} to blur full size image.
+	 */
+	public BlurImageProcessor(int radius, int downscale)
+	{
+		super(new DownscaleImageProcessor(Math.max(1, downscale)), new BoxBlurImageProcessor(Math.round((float) radius / Math.max(1, downscale))));
+		this.uniqueId = BlurImageProcessor.class.getName() + radius + "x" + Math.max(1, downscale);
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getUniqueId()
+	{
+		return uniqueId;
+	}
+
+	// DownscaleImageProcessor
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Makes image given number of times smaller with filtering.
+	 */
+	private static class DownscaleImageProcessor implements TransformImageProcessor
+	{
+		private final int	downscale;
+
+		public DownscaleImageProcessor(int downscale)
+		{
+			this.downscale = downscale;
+		}
+
+		@Override
+		public Bitmap processImage(Bitmap bitmap)
+		{
+			return ImagePipeline.process(bitmap, this);
+		}
+
+		@Override
+		public void concat(Transform transform)
+		{
+			if (downscale <= 1)
+				return;
+
+			final int width = Math.max(1, transform.width / downscale);
+			final int height = Math.max(1, transform.height / downscale);
+			transform.matrix.postScale((float) width / (float) transform.width, (float) height / (float) transform.height);
+			transform.filter = true;
+			transform.setSize(width, height, true);
+		}
+
+		@Override
+		public String getUniqueId()
+		{
+			return DownscaleImageProcessor.class.getName() + downscale;
+		}
+	}
+}
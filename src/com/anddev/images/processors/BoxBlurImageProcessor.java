@@ -0,0 +1,160 @@
+package com.anddev.images.processors;
+
+import android.graphics.Bitmap;
+
+/**
+ * Blurs image with repeated box blur. Every iteration is separated into horizontal and vertical pass, so cost does not depend on radius. Three
+ * iterations look almost like gaussian blur.
+ * <p>
+ * Blur is done on full size image. For big radius use {@link BlurImageProcessor}, which makes image smaller first.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class BoxBlurImageProcessor implements PixelImageProcessor
+{
+	public static final int	DEFAULT_ITERATIONS	= 3;
+
+	private final int		radius;
+	private final int		iterations;
+	private final String	uniqueId;
+
+	/**
+	 * @param radius
+	 *            Blur radius in pixels.
+	 */
+	public BoxBlurImageProcessor(int radius)
+	{
+		this(radius, DEFAULT_ITERATIONS);
+	}
+
+	/**
+	 * @param radius
+	 *            Blur radius in pixels.
+	 * @param iterations
+	 *            Number of box blur iterations. More iterations make blur smoother.
+	 */
+	public BoxBlurImageProcessor(int radius, int iterations)
+	{
+		this.radius = Math.max(0, radius);
+		this.iterations = Math.max(1, iterations);
+		this.uniqueId = BoxBlurImageProcessor.class.getName() + this.radius + "x" + this.iterations;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Bitmap processImage(Bitmap bitmap)
+	{
+		return ImagePipeline.process(bitmap, this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getPassCount()
+	{
+		return radius > 0 ? iterations * 2 : 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void processRows(int pass, int[] in, int[] out, int width, int height, int fromRow, int toRow)
+	{
+		if (pass % 2 == 0)
+			blurHorizontally(in, out, width, fromRow, toRow);
+		else
+			blurVertically(in, out, width, height, fromRow, toRow);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getUniqueId()
+	{
+		return uniqueId;
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private void blurHorizontally(int[] in, int[] out, int width, int fromRow, int toRow)
+	{
+		final int window = radius * 2 + 1;
+		final int last = width - 1;
+		for (int y = fromRow; y < toRow; y++)
+		{
+			final int row = y * width;
+
+			// Window for the first pixel. Pixels outside the image repeat the edge pixel.
+			int a = 0, r = 0, g = 0, b = 0;
+			for (int i = -radius; i <= radius; i++)
+			{
+				final int pixel = in[row + clamp(i, last)];
+				a += pixel >>> 24;
+				r += (pixel >> 16) & 0xFF;
+				g += (pixel >> 8) & 0xFF;
+				b += pixel & 0xFF;
+			}
+
+			for (int x = 0; x < width; x++)
+			{
+				out[row + x] = ((a / window) << 24) | ((r / window) << 16) | ((g / window) << 8) | (b / window);
+
+				// Slide window by one pixel
+				final int removed = in[row + clamp(x - radius, last)];
+				final int added = in[row + clamp(x + radius + 1, last)];
+				a += (added >>> 24) - (removed >>> 24);
+				r += ((added >> 16) & 0xFF) - ((removed >> 16) & 0xFF);
+				g += ((added >> 8) & 0xFF) - ((removed >> 8) & 0xFF);
+				b += (added & 0xFF) - (removed & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Window slides down every column. Rows above and below the tile are only read, so tiles can run at the same time.
+	 */
+	private void blurVertically(int[] in, int[] out, int width, int height, int fromRow, int toRow)
+	{
+		final int window = radius * 2 + 1;
+		final int last = height - 1;
+		for (int x = 0; x < width; x++)
+		{
+			int a = 0, r = 0, g = 0, b = 0;
+			for (int i = fromRow - radius; i <= fromRow + radius; i++)
+			{
+				final int pixel = in[clamp(i, last) * width + x];
+				a += pixel >>> 24;
+				r += (pixel >> 16) & 0xFF;
+				g += (pixel >> 8) & 0xFF;
+				b += pixel & 0xFF;
+			}
+
+			for (int y = fromRow; y < toRow; y++)
+			{
+				out[y * width + x] = ((a / window) << 24) | ((r / window) << 16) | ((g / window) << 8) | (b / window);
+
+				final int removed = in[clamp(y - radius, last) * width + x];
+				final int added = in[clamp(y + radius + 1, last) * width + x];
+				a += (added >>> 24) - (removed >>> 24);
+				r += ((added >> 16) & 0xFF) - ((removed >> 16) & 0xFF);
+				g += ((added >> 8) & 0xFF) - ((removed >> 8) & 0xFF);
+				b += (added & 0xFF) - (removed & 0xFF);
+			}
+		}
+	}
+
+	private static int clamp(int index, int last)
+	{
+		return index < 0 ? 0 : (index > last ? last : index);
+	}
+}
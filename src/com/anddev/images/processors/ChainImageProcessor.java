@@ -3,13 +3,14 @@ package com.anddev.images.processors;
 import android.graphics.Bitmap;
 
 /**
- * Allows multiple image processors to be chained.
+ * Allows multiple image processors to be chained. Processors run through {@link ImagePipeline}, so compatible steps are merged into one draw.
  * 
  * @author Mantas Varnagiris
  */
 public class ChainImageProcessor implements ImageProcessor
 {
 	ImageProcessor[]	processors;
+	private String		uniqueId	= null;
 
 	public ChainImageProcessor(ImageProcessor... processors)
 	{
@@ -19,17 +20,20 @@ public class ChainImageProcessor implements ImageProcessor
 	@Override
 	public Bitmap processImage(Bitmap bitmap)
 	{
-		for (ImageProcessor processor : processors)
-			bitmap = processor.processImage(bitmap);
-		return bitmap;
+		return ImagePipeline.process(bitmap, processors);
 	}
 
 	@Override
 	public String getUniqueId()
 	{
-		StringBuilder builder = new StringBuilder();
-		for (int i = 0; i < processors.length; i++)
-			builder.append("." + processors[i].getUniqueId());
-		return ChainImageProcessor.class.getName() + builder.toString();
+		// Processors don't change, so ID is built only once
+		if (uniqueId == null)
+		{
+			StringBuilder builder = new StringBuilder(ChainImageProcessor.class.getName());
+			for (int i = 0; i < processors.length; i++)
+				builder.append('.').append(processors[i].getUniqueId());
+			uniqueId = builder.toString();
+		}
+		return uniqueId;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package com.anddev.images.processors;
+
+import android.graphics.Bitmap;
+import android.graphics.ColorMatrix;
+
+/**
+ * Changes colors with {@link ColorMatrix}. When chained with {@link ScaleImageProcessor}, scaling and color change are done in one draw.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class ColorMatrixImageProcessor implements TransformImageProcessor
+{
+	private final ColorMatrix	colorMatrix;
+	private final boolean		preservesAlpha;
+	private final String		uniqueId;
+
+	/**
+	 * @param colorMatrix
+	 *            Color matrix. It is copied, so later changes don't affect this processor.
+	 */
+	public ColorMatrixImageProcessor(ColorMatrix colorMatrix)
+	{
+		this.colorMatrix = new ColorMatrix(colorMatrix);
+
+		// Alpha row must be [0, 0, 0, 1, 0]
+		final float[] values = this.colorMatrix.getArray();
+		preservesAlpha = values[15] == 0 && values[16] == 0 && values[17] == 0 && values[18] == 1 && values[19] == 0;
+
+		// Matrix doesn't change, so ID is built only once
+		final StringBuilder builder = new StringBuilder(ColorMatrixImageProcessor.class.getName());
+		for (float value : values)
+			builder.append('_').append(value);
+		uniqueId = builder.toString();
+	}
+
+	/**
+	 * @return Processor that makes image grayscale.
+	 */
+	public static ColorMatrixImageProcessor createGrayscale()
+	{
+		final ColorMatrix colorMatrix = new ColorMatrix();
+		colorMatrix.setSaturation(0);
+		return new ColorMatrixImageProcessor(colorMatrix);
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Bitmap processImage(Bitmap bitmap)
+	{
+		return ImagePipeline.process(bitmap, this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void concat(Transform transform)
+	{
+		transform.postConcat(colorMatrix);
+		transform.opaque &= preservesAlpha;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getUniqueId()
+	{
+		return uniqueId;
+	}
+}
@@ -0,0 +1,361 @@
+package com.anddev.images.processors;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.os.Process;
+
+import com.anddev.images.BitmapPool;
+import com.anddev.images.processors.TransformImageProcessor.Transform;
+import com.anddev.utils.APIUtils;
+
+/**
+ * Runs processors with as few intermediate bitmaps as possible.
+ * <ul>
+ * <li>Consecutive {@link TransformImageProcessor}s are merged into one draw with single matrix and color filter.</li>
+ * <li>{@link PixelImageProcessor}s run on two reused pixel buffers. Every pass is split into row tiles that run on all cores.</li>
+ * <li>Other processors run as they are.</li>
+ * </ul>
+ * Processors inside {@link ChainImageProcessor} are merged with their neighbours too.
+ * 
+ * @author Mantas Varnagiris
+ */
+public final class ImagePipeline
+{
+	/** Smaller images are processed on calling thread only, because starting tiles would cost more than it saves. */
+	private static final int			MIN_PARALLEL_PIXELS	= 64 * 1024;
+	private static final int			MIN_TILE_ROWS		= 16;
+	/** Bigger pixel buffers are not kept between calls. */
+	private static final int			MAX_CACHED_BUFFER	= 1024 * 1024;
+	private static final int			KEEP_ALIVE_SECONDS	= 30;
+	private static final int			THREADS				= Runtime.getRuntime().availableProcessors();
+
+	private static final int[][]		cachedBuffers		= new int[2][];
+	private static ThreadPoolExecutor	tileExecutor		= null;
+
+	private Bitmap						bitmap;
+	private Transform					transform			= null;
+
+	private ImagePipeline(Bitmap bitmap)
+	{
+		this.bitmap = bitmap;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Processes bitmap with given processors in order. Given bitmap is recycled or put to {@link BitmapPool} if it is not returned.
+	 * 
+	 * @param bitmap
+	 *            Bitmap to process.
+	 * @param processors
+	 *            Processors.
+	 * @return Processed bitmap or {@code null} if given bitmap was {@code null}.
+	 */
+	public static Bitmap process(Bitmap bitmap, ImageProcessor... processors)
+	{
+		if (bitmap == null)
+			return null;
+
+		final ImagePipeline pipeline = new ImagePipeline(bitmap);
+		pipeline.add(processors);
+		pipeline.flush();
+		return pipeline.bitmap;
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private void add(ImageProcessor[] processors)
+	{
+		for (ImageProcessor processor : processors)
+		{
+			if (bitmap == null)
+				return;
+
+			if (processor instanceof ChainImageProcessor)
+			{
+				add(((ChainImageProcessor) processor).processors);
+			}
+			else if (processor instanceof TransformImageProcessor)
+			{
+				if (transform == null)
+					transform = new Transform(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig() == Config.RGB_565);
+				((TransformImageProcessor) processor).concat(transform);
+			}
+			else
+			{
+				flush();
+				if (processor instanceof PixelImageProcessor)
+					bitmap = processPixels(bitmap, (PixelImageProcessor) processor);
+				else
+					bitmap = processor.processImage(bitmap);
+			}
+		}
+	}
+
+	/**
+	 * Draws merged transforms.
+	 */
+	private void flush()
+	{
+		if (transform == null)
+			return;
+
+		bitmap = draw(bitmap, transform);
+		transform = null;
+	}
+
+	private static Bitmap draw(Bitmap bitmap, Transform transform)
+	{
+		if (transform.isIdentity(bitmap.getWidth(), bitmap.getHeight()))
+			return bitmap;
+
+		try
+		{
+			// Reuse unused bitmap if possible
+			final Config config = transform.opaque ? Config.RGB_565 : Config.ARGB_8888;
+			final BitmapPool bitmapPool = BitmapPool.getInstance();
+			Bitmap result = bitmapPool.get(transform.width, transform.height, config);
+			if (result != null)
+				result.eraseColor(Color.TRANSPARENT);
+			else
+				result = Bitmap.createBitmap(transform.width, transform.height, config);
+
+			Paint paint = null;
+			if (transform.filter || transform.colorMatrix != null)
+			{
+				paint = new Paint(transform.filter ? Paint.FILTER_BITMAP_FLAG : 0);
+				if (transform.colorMatrix != null)
+					paint.setColorFilter(new ColorMatrixColorFilter(transform.colorMatrix));
+			}
+
+			final Canvas canvas = new Canvas(result);
+			canvas.drawBitmap(bitmap, transform.matrix, paint);
+
+			// Source bitmap is not needed anymore
+			if (!bitmapPool.put(bitmap))
+				bitmap.recycle();
+
+			return result;
+		}
+		catch (OutOfMemoryError e)
+		{
+			e.printStackTrace();
+		}
+
+		return bitmap;
+	}
+
+	private static Bitmap processPixels(Bitmap bitmap, PixelImageProcessor processor)
+	{
+		// Nothing to do, so pixels are not copied to buffer and back
+		final int passCount = processor.getPassCount();
+		if (passCount <= 0)
+			return bitmap;
+
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		int[] in = null;
+		int[] out = null;
+		try
+		{
+			in = takeBuffer(width * height);
+			out = takeBuffer(width * height);
+			bitmap.getPixels(in, 0, width, 0, 0, width, height);
+
+			for (int pass = 0; pass < passCount; pass++)
+			{
+				processTiles(processor, pass, in, out, width, height);
+				final int[] temp = in;
+				in = out;
+				out = temp;
+			}
+
+			// Pixels are written back to the same bitmap if possible
+			Bitmap result = bitmap;
+			final BitmapPool bitmapPool = BitmapPool.getInstance();
+			if (!bitmap.isMutable())
+			{
+				final Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Config.ARGB_8888;
+				result = bitmapPool.get(width, height, config);
+				if (result == null)
+					result = Bitmap.createBitmap(width, height, config);
+			}
+			result.setPixels(in, 0, width, 0, 0, width, height);
+
+			if (result != bitmap && !bitmapPool.put(bitmap))
+				bitmap.recycle();
+
+			return result;
+		}
+		catch (OutOfMemoryError e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			releaseBuffer(in);
+			releaseBuffer(out);
+		}
+
+		return bitmap;
+	}
+
+	/**
+	 * Splits pass into row tiles. Calling thread processes the first tile itself and waits for the others.
+	 */
+	private static void processTiles(final PixelImageProcessor processor, final int pass, final int[] in, final int[] out, final int width,
+			final int height)
+	{
+		final int tileCount = width * height < MIN_PARALLEL_PIXELS ? 1 : Math.min(THREADS, height / MIN_TILE_ROWS);
+		if (tileCount <= 1)
+		{
+			processor.processRows(pass, in, out, width, height, 0, height);
+			return;
+		}
+
+		final int tileRows = (height + tileCount - 1) / tileCount;
+		final CountDownLatch latch = new CountDownLatch(tileCount - 1);
+		final Executor executor = getTileExecutor();
+		for (int tile = 1; tile < tileCount; tile++)
+		{
+			final int fromRow = tile * tileRows;
+			final int toRow = Math.min(height, fromRow + tileRows);
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						if (fromRow < toRow)
+							processor.processRows(pass, in, out, width, height, fromRow, toRow);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			});
+		}
+
+		processor.processRows(pass, in, out, width, height, 0, Math.min(height, tileRows));
+
+		// Buffers are reused after this call, so all tiles must finish even if thread is interrupted
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				latch.await();
+				break;
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	@TargetApi(9)
+	private static synchronized Executor getTileExecutor()
+	{
+		if (tileExecutor == null)
+		{
+			// Calling thread processes one tile too
+			final int threads = Math.max(1, THREADS - 1);
+			tileExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new TileThreadFactory());
+			if (APIUtils.SUPPORTS_GINGERBREAD)
+				tileExecutor.allowCoreThreadTimeOut(true);
+		}
+		return tileExecutor;
+	}
+
+	/**
+	 * @return Cached buffer that has at least given size or new buffer.
+	 */
+	private static int[] takeBuffer(int size)
+	{
+		synchronized (cachedBuffers)
+		{
+			for (int i = 0; i < cachedBuffers.length; i++)
+			{
+				final int[] buffer = cachedBuffers[i];
+				if (buffer != null && buffer.length >= size)
+				{
+					cachedBuffers[i] = null;
+					return buffer;
+				}
+			}
+		}
+
+		return new int[size];
+	}
+
+	/**
+	 * Keeps buffer for next call. Replaces smaller cached buffer if there is no free place.
+	 */
+	private static void releaseBuffer(int[] buffer)
+	{
+		if (buffer == null || buffer.length > MAX_CACHED_BUFFER)
+			return;
+
+		synchronized (cachedBuffers)
+		{
+			int index = 0;
+			for (int i = 0; i < cachedBuffers.length; i++)
+			{
+				if (cachedBuffers[i] == null)
+				{
+					index = i;
+					break;
+				}
+
+				if (cachedBuffers[i].length < cachedBuffers[index].length)
+					index = i;
+			}
+
+			if (cachedBuffers[index] == null || cachedBuffers[index].length < buffer.length)
+				cachedBuffers[index] = buffer;
+		}
+	}
+
+	// TileThreadFactory
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class TileThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger	count	= new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(final Runnable runnable)
+		{
+			return new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					runnable.run();
+				}
+			}, "ImageTile #" + count.getAndIncrement());
+		}
+	}
+}
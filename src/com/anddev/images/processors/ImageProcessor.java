@@ -21,7 +21,7 @@ public interface ImageProcessor
 	public Bitmap processImage(Bitmap bitmap);
 
 	/**
-	 * Generates unique ID for this class. Used to generate {@link ImageToLoad#memoryName}.
+	 * Generates unique ID for this class. Used to generate {@link ImageToLoad#memoryKey}. Called on UI thread for every load, so it should be cheap.
 	 * <p>
 	 * Because of this, we can identify images that has been processed with two different {@link ImageProcessor} as two different images.
 	 * </p>
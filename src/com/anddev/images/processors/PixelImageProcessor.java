@@ -0,0 +1,36 @@
+package com.anddev.images.processors;
+
+/**
+ * Processor that works on pixels directly, like blur or color filters that can't be done with {@link android.graphics.ColorMatrix}.
+ * {@link ImagePipeline} splits every pass into row tiles and runs them on all cores.
+ * 
+ * @author Mantas Varnagiris
+ */
+public interface PixelImageProcessor extends ImageProcessor
+{
+	/**
+	 * @return Number of passes. Next pass starts only when all tiles of previous pass are finished.
+	 */
+	public int getPassCount();
+
+	/**
+	 * Processes rows of given pass. Pixels are read from {@code in} and written to {@code out}. Buffers are swapped after every pass. Called from
+	 * multiple threads at the same time, so it must not keep any state and must only write rows from {@code fromRow} to {@code toRow}.
+	 * 
+	 * @param pass
+	 *            Number of the pass, starting with {@code 0}.
+	 * @param in
+	 *            Pixels of the whole image in ARGB format. Buffer can be longer than {@code width * height}.
+	 * @param out
+	 *            Buffer for result of the whole image.
+	 * @param width
+	 *            Width of the image.
+	 * @param height
+	 *            Height of the image.
+	 * @param fromRow
+	 *            First row to process, inclusive.
+	 * @param toRow
+	 *            Last row to process, exclusive.
+	 */
+	public void processRows(int pass, int[] in, int[] out, int width, int height, int fromRow, int toRow);
+}
@@ -1,30 +1,24 @@
 package com.anddev.images.processors;
 
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
 import android.graphics.Matrix;
-import android.graphics.RectF;
 
 /**
  * Scales Bitmaps according to a given width and height. The scaling method may be one of the {@link ScaleType} values.
  * 
  * @author Mantas Varnagiris
  */
-public class ScaleImageProcessor implements ImageProcessor
+public class ScaleImageProcessor implements TransformImageProcessor
 {
 	public enum ScaleType
 	{
 		NONE, CENTER_CROP, CENTER_INSIDE, CENTER, FIT_XY, SCALE_AND_CROP_TO_FILL
 	}
 
-	private int				targetWidth;
-	private int				targetHeight;
-	private ScaleType		scaleType;
-	private final Matrix	matrix		= new Matrix();
-
-	private final RectF		tempSrcRect	= new RectF();
-	private final RectF		tempDstRect	= new RectF();
+	private int			targetWidth;
+	private int			targetHeight;
+	private ScaleType	scaleType;
+	private String		uniqueId	= null;
 
 	/**
 	 * Create a new ScaleImageProcessor.
@@ -49,14 +43,23 @@ public class ScaleImageProcessor implements ImageProcessor
 	@Override
 	public Bitmap processImage(Bitmap bitmap)
 	{
-		if (bitmap == null)
-			return null;
+		return ImagePipeline.process(bitmap, this);
+	}
 
-		matrix.reset();
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void concat(Transform transform)
+	{
+		final int bWidth = transform.width;
+		final int bHeight = transform.height;
 
-		final int bWidth = bitmap.getWidth();
-		final int bHeight = bitmap.getHeight();
+		// Decoder already returned bitmap of required size
+		if (bWidth == targetWidth && bHeight == targetHeight)
+			return;
 
+		final Matrix matrix = transform.matrix;
 		switch (scaleType)
 		{
 
@@ -77,7 +80,7 @@ public class ScaleImageProcessor implements ImageProcessor
 					dy = (targetHeight - bHeight * scale) * 0.5f;
 				}
 
-				matrix.setScale(scale, scale);
+				matrix.postScale(scale, scale);
 				matrix.postTranslate((int) (dx + 0.5f), (int) (dy + 0.5f));
 				break;
 			}
@@ -87,7 +90,7 @@ public class ScaleImageProcessor implements ImageProcessor
 				// Center bitmap without scaling
 				final int dx = (int) ((targetWidth - bWidth) * 0.5f + 0.5f);
 				final int dy = (int) ((targetHeight - bHeight) * 0.5f + 0.5f);
-				matrix.setTranslate(dx, dy);
+				matrix.postTranslate(dx, dy);
 				break;
 			}
 
@@ -110,7 +113,7 @@ public class ScaleImageProcessor implements ImageProcessor
 				dx = (int) ((targetWidth - bWidth * scale) * 0.5f + 0.5f);
 				dy = (int) ((targetHeight - bHeight * scale) * 0.5f + 0.5f);
 
-				matrix.setScale(scale, scale);
+				matrix.postScale(scale, scale);
 				matrix.postTranslate(dx, dy);
 				break;
 			}
@@ -134,7 +137,7 @@ public class ScaleImageProcessor implements ImageProcessor
 				dx = (int) ((targetWidth - bWidth * scale) * 0.5f + 0.5f);
 				dy = (int) ((targetHeight - bHeight * scale) * 0.5f + 0.5f);
 
-				matrix.setScale(scale, scale);
+				matrix.postScale(scale, scale);
 				matrix.postTranslate(dx, dy);
 				break;
 			}
@@ -142,31 +145,11 @@ public class ScaleImageProcessor implements ImageProcessor
 			case FIT_XY:
 			default:
 				// Entirely fills the space without respecting bitmap's ratio.
-				tempSrcRect.set(0, 0, bWidth, bHeight);
-				tempDstRect.set(0, 0, targetWidth, targetHeight);
-
-				matrix.setRectToRect(tempSrcRect, tempDstRect, Matrix.ScaleToFit.FILL);
+				matrix.postScale((float) targetWidth / (float) bWidth, (float) targetHeight / (float) bHeight);
 				break;
 		}
 
-		try
-		{
-
-			Bitmap result = Bitmap.createBitmap(targetWidth, targetHeight, Config.ARGB_8888);
-			Canvas canvas = new Canvas(result);
-			canvas.drawBitmap(bitmap, matrix, null);
-
-			bitmap.recycle();
-			bitmap = null;
-
-			return result;
-		}
-		catch (OutOfMemoryError e)
-		{
-			e.printStackTrace();
-		}
-
-		return bitmap;
+		transform.setSize(targetWidth, targetHeight, coversResult(bWidth, bHeight));
 	}
 
 	/**
@@ -175,6 +158,37 @@ public class ScaleImageProcessor implements ImageProcessor
 	@Override
 	public String getUniqueId()
 	{
-		return ScaleImageProcessor.class.getName() + targetWidth + "x" + targetHeight;
+		if (uniqueId == null)
+			uniqueId = ScaleImageProcessor.class.getName() + targetWidth + "x" + targetHeight;
+		return uniqueId;
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Opaque bitmaps stay opaque if they cover the whole result. Otherwise result can have transparent areas.
+	 */
+	private boolean coversResult(int bWidth, int bHeight)
+	{
+		final boolean coversResult;
+		switch (scaleType)
+		{
+			case CENTER_CROP:
+			case SCALE_AND_CROP_TO_FILL:
+			case FIT_XY:
+				coversResult = true;
+				break;
+
+			case CENTER:
+				coversResult = bWidth >= targetWidth && bHeight >= targetHeight;
+				break;
+
+			default:
+				coversResult = false;
+				break;
+		}
+
+		return coversResult;
 	}
 }
\ No newline at end of file
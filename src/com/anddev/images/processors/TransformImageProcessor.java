@@ -0,0 +1,89 @@
+package com.anddev.images.processors;
+
+import android.graphics.ColorMatrix;
+import android.graphics.Matrix;
+
+/**
+ * Processor that only scales, moves, crops or color filters the image. It does not draw on its own, it adds its step to {@link Transform}
+ * instead. {@link ImagePipeline} merges consecutive transforms into one draw, so no intermediate bitmaps are created.
+ * 
+ * @author Mantas Varnagiris
+ */
+public interface TransformImageProcessor extends ImageProcessor
+{
+	/**
+	 * Adds this step to transform. Must not keep any state, because the same processor can be used from multiple threads.
+	 * 
+	 * @param transform
+	 *            Transform that describes the result of previous steps.
+	 */
+	public void concat(Transform transform);
+
+	// Transform
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Result of merged steps: matrix that maps source bitmap to result, size of the result and color filter.
+	 */
+	public static class Transform
+	{
+		/** Maps source bitmap to result. */
+		public final Matrix	matrix	= new Matrix();
+		/** Width of the result. */
+		public int			width;
+		/** Height of the result. */
+		public int			height;
+		/** Color filter or {@code null}. */
+		public ColorMatrix	colorMatrix;
+		/** {@code true} if result is opaque and source covers all of it. */
+		public boolean		opaque;
+		/** {@code true} if bitmap should be filtered when scaled. */
+		public boolean		filter;
+
+		public Transform(int width, int height, boolean opaque)
+		{
+			this.width = width;
+			this.height = height;
+			this.opaque = opaque;
+		}
+
+		// Public methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Changes size of the result.
+		 * 
+		 * @param width
+		 *            New width.
+		 * @param height
+		 *            New height.
+		 * @param coversResult
+		 *            {@code true} if mapped image covers all of the new size.
+		 */
+		public void setSize(int width, int height, boolean coversResult)
+		{
+			this.width = width;
+			this.height = height;
+			opaque &= coversResult;
+		}
+
+		/**
+		 * Adds color filter after current one.
+		 */
+		public void postConcat(ColorMatrix colorMatrix)
+		{
+			if (this.colorMatrix == null)
+				this.colorMatrix = new ColorMatrix(colorMatrix);
+			else
+				this.colorMatrix.postConcat(colorMatrix);
+		}
+
+		/**
+		 * @return {@code true} if result would be the same as source bitmap.
+		 */
+		public boolean isIdentity(int sourceWidth, int sourceHeight)
+		{
+			return width == sourceWidth && height == sourceHeight && colorMatrix == null && matrix.isIdentity();
+		}
+	}
+}
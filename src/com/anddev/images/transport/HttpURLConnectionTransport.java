@@ -0,0 +1,283 @@
+package com.anddev.images.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.anddev.images.CancelSignal;
+import com.anddev.images.CancelSignal.OnCancelListener;
+import com.anddev.utils.NetworkUtils;
+
+/**
+ * {@link Transport} on top of {@link HttpURLConnection}. Platform keeps idle connections in a keep-alive pool, but only if response body is read to
+ * the end and stream is closed without calling {@link HttpURLConnection#disconnect()}. This transport does exactly that and limits number of
+ * connections to the same host, so loading a screen of thumbnails from one server reuses a few warm connections.
+ * <p>
+ * Platform pool keeps up to {@code http.maxConnections} idle connections per host (5 by default) and reads the property only once, when the
+ * pool is created. If you allow more connections per host, set this property at application startup, before any connection is made.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class HttpURLConnectionTransport implements Transport
+{
+	public static final int					DEFAULT_MAX_CONNECTIONS_PER_HOST	= 4;
+	public static final int					DEFAULT_CONNECT_TIMEOUT				= 15 * 1000;
+	public static final int					DEFAULT_READ_TIMEOUT				= 30 * 1000;
+
+	/** Bigger remainder of the body is not drained. Closing connection is cheaper than downloading it. */
+	private static final int				MAX_DRAIN_BYTES						= 64 * 1024;
+	private static final int				DRAIN_BUFFER_SIZE					= 4 * 1024;
+	/** How often waiting for a free connection checks if request was cancelled. */
+	private static final long				PERMIT_POLL_MILLIS					= 100;
+	/** Requests are cancelled from UI thread, but closing socket (and TLS session) can block, so it is done here. Thread stops when idle. */
+	private static final Executor			DISCONNECT_EXECUTOR					= new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+																						new LinkedBlockingQueue<Runnable>());
+
+	private final Map<String, Semaphore>	hostPermits							= new HashMap<String, Semaphore>();
+	private final int						maxConnectionsPerHost;
+	private final int						connectTimeout;
+	private final int						readTimeout;
+
+	public HttpURLConnectionTransport()
+	{
+		this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+	}
+
+	/**
+	 * @param maxConnectionsPerHost
+	 *            Maximum number of requests to the same host at the same time. Other requests wait for a free connection.
+	 * @param connectTimeout
+	 *            Connect timeout in milliseconds.
+	 * @param readTimeout
+	 *            Read timeout in milliseconds.
+	 */
+	public HttpURLConnectionTransport(int maxConnectionsPerHost, int connectTimeout, int readTimeout)
+	{
+		this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+
+		NetworkUtils.disableConnectionReuseIfNecessary();
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Response execute(Request request, CancelSignal cancelSignal) throws IOException
+	{
+		final URL url = new URL(request.url);
+		final Semaphore permits = getPermits(url);
+		acquire(permits, cancelSignal);
+
+		HttpURLConnection connection = null;
+		try
+		{
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			for (Map.Entry<String, String> header : request.headers.entrySet())
+				connection.setRequestProperty(header.getKey(), header.getValue());
+
+			// Closing connection unblocks read that is waiting for data
+			final HttpURLConnection cancelConnection = connection;
+			cancelSignal.setOnCancelListener(new OnCancelListener()
+			{
+				@Override
+				public void onCancel()
+				{
+					DISCONNECT_EXECUTOR.execute(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							cancelConnection.disconnect();
+						}
+					});
+				}
+			});
+
+			connection.getResponseCode();
+			final Response response = new ConnectionResponse(connection, permits, cancelSignal);
+			connection = null;
+			return response;
+		}
+		finally
+		{
+			// Failed before response was created
+			if (connection != null)
+			{
+				cancelSignal.setOnCancelListener(null);
+				connection.disconnect();
+				permits.release();
+			}
+		}
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private Semaphore getPermits(URL url)
+	{
+		final String host = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+		synchronized (hostPermits)
+		{
+			Semaphore permits = hostPermits.get(host);
+			if (permits == null)
+			{
+				permits = new Semaphore(maxConnectionsPerHost, true);
+				hostPermits.put(host, permits);
+			}
+			return permits;
+		}
+	}
+
+	private static void acquire(Semaphore permits, CancelSignal cancelSignal) throws IOException
+	{
+		try
+		{
+			while (!permits.tryAcquire(PERMIT_POLL_MILLIS, TimeUnit.MILLISECONDS))
+			{
+				if (cancelSignal.isCancelled())
+					throw new InterruptedIOException("Cancelled");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted");
+		}
+
+		if (cancelSignal.isCancelled())
+		{
+			permits.release();
+			throw new InterruptedIOException("Cancelled");
+		}
+	}
+
+	// ConnectionResponse
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class ConnectionResponse extends Response
+	{
+		private final HttpURLConnection	connection;
+		private final Semaphore			permits;
+		private final CancelSignal		cancelSignal;
+		private InputStream				body			= null;
+		private boolean					closed			= false;
+
+		public ConnectionResponse(HttpURLConnection connection, Semaphore permits, CancelSignal cancelSignal)
+		{
+			this.connection = connection;
+			this.permits = permits;
+			this.cancelSignal = cancelSignal;
+		}
+
+		@Override
+		public int getCode()
+		{
+			try
+			{
+				return connection.getResponseCode();
+			}
+			catch (IOException e)
+			{
+				return -1;
+			}
+		}
+
+		@Override
+		public String getHeader(String name)
+		{
+			return connection.getHeaderField(name);
+		}
+
+		@Override
+		public long getDateHeader(String name)
+		{
+			return connection.getHeaderFieldDate(name, 0);
+		}
+
+		@Override
+		public long getContentLength()
+		{
+			return connection.getContentLength();
+		}
+
+		@Override
+		public InputStream getBody() throws IOException
+		{
+			if (body == null)
+				body = openBody();
+			return body;
+		}
+
+		@Override
+		public void close()
+		{
+			if (closed)
+				return;
+
+			closed = true;
+			cancelSignal.setOnCancelListener(null);
+			try
+			{
+				if (cancelSignal.isCancelled() || !drain(getBody()))
+					connection.disconnect();
+				else
+					body.close();
+			}
+			catch (IOException e)
+			{
+				connection.disconnect();
+			}
+			finally
+			{
+				permits.release();
+			}
+		}
+
+		/**
+		 * Error responses have their body in error stream. Both streams must be read to the end to reuse connection.
+		 */
+		private InputStream openBody() throws IOException
+		{
+			if (getCode() < HttpURLConnection.HTTP_BAD_REQUEST)
+				return connection.getInputStream();
+
+			final InputStream errorStream = connection.getErrorStream();
+			return errorStream != null ? errorStream : new ByteArrayInputStream(new byte[0]);
+		}
+
+		/**
+		 * @return {@code true} if stream was read to the end; {@code false} if the rest is too big.
+		 */
+		private static boolean drain(InputStream in) throws IOException
+		{
+			final byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+			int drained = 0;
+			int count;
+			while ((count = in.read(buffer)) != -1)
+			{
+				drained += count;
+				if (drained > MAX_DRAIN_BYTES)
+					return false;
+			}
+			return true;
+		}
+	}
+}
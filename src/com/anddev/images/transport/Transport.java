@@ -0,0 +1,121 @@
+package com.anddev.images.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.anddev.images.CancelSignal;
+
+/**
+ * Sends HTTP requests for {@link com.anddev.images.info.URLBitmapInfo.URLBitmapFetcher}. Implementations should keep connections alive between
+ * requests, so images from the same host don't need a new TCP and TLS handshake every time.
+ * 
+ * @author Mantas Varnagiris
+ */
+public interface Transport
+{
+	/**
+	 * Sends request and waits for response headers. Must be called from worker thread.
+	 * 
+	 * @param request
+	 *            Request to send.
+	 * @param cancelSignal
+	 *            Signal of the work that needs response. When it is cancelled, connection is closed and blocked reads fail.
+	 * @return Response. Must be closed with {@link Response#close()}.
+	 * @throws IOException
+	 *             If request failed or was cancelled.
+	 */
+	public Response execute(Request request, CancelSignal cancelSignal) throws IOException;
+
+	// Request
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * GET request.
+	 */
+	public static class Request
+	{
+		public final String					url;
+		public final Map<String, String>	headers	= new LinkedHashMap<String, String>();
+
+		public Request(String url)
+		{
+			this.url = url;
+		}
+
+		// Public methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		public Request setHeader(String name, String value)
+		{
+			headers.put(name, value);
+			return this;
+		}
+
+		/**
+		 * Sets header with date in HTTP format, like If-Modified-Since.
+		 * 
+		 * @param name
+		 *            Header name.
+		 * @param time
+		 *            Time in milliseconds since epoch.
+		 */
+		public Request setDateHeader(String name, long time)
+		{
+			final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			return setHeader(name, format.format(new Date(time)));
+		}
+	}
+
+	// Response
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Response with headers received. Body is read from {@link #getBody()}. {@link #close()} must always be called, because it returns connection
+	 * to the pool.
+	 */
+	public static abstract class Response implements Closeable
+	{
+		// Abstract methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * @return HTTP status code.
+		 */
+		public abstract int getCode();
+
+		/**
+		 * @return Value of the header or {@code null}.
+		 */
+		public abstract String getHeader(String name);
+
+		/**
+		 * @return Value of the date header in milliseconds since epoch or {@code 0} if it is missing or can't be parsed.
+		 */
+		public abstract long getDateHeader(String name);
+
+		/**
+		 * @return Length of the body or {@code -1} if unknown.
+		 */
+		public abstract long getContentLength();
+
+		/**
+		 * @return Stream of the body. Empty stream if response has no body.
+		 */
+		public abstract InputStream getBody() throws IOException;
+
+		/**
+		 * Reads the rest of the body, so connection can be reused, and releases it. Connection is closed instead if the rest of the body is too
+		 * big or request was cancelled.
+		 */
+		@Override
+		public abstract void close();
+	}
+}
@@ -19,7 +19,8 @@ import android.os.Environment;
 public class ImageUtils
 {
 	/**
-	 * Calculates optimal inSampleSize for bitmap.
+	 * Calculates optimal inSampleSize for bitmap. Decoders only support powers of two (other values are rounded down), so this returns the largest
+	 * power of two for which decoded bitmap is still not smaller than required size in both dimensions.
 	 * 
 	 * @param bitmapWidth
 	 *            Bitmap width.
@@ -33,16 +34,13 @@ public class ImageUtils
 	 */
 	public static int calculateInSampleSize(final int bitmapWidth, final int bitmapHeight, final int reqWidth, final int reqHeight)
 	{
-		// Raw height and width of image
 		int inSampleSize = 1;
+		if (reqWidth <= 0 || reqHeight <= 0)
+			return inSampleSize;
+
+		while (bitmapWidth / (inSampleSize * 2) >= reqWidth && bitmapHeight / (inSampleSize * 2) >= reqHeight)
+			inSampleSize *= 2;
 
-		if (bitmapHeight > reqHeight || bitmapWidth > reqWidth)
-		{
-			if (bitmapWidth > bitmapHeight)
-				inSampleSize = Math.round((float) bitmapHeight / (float) reqHeight);
-			else
-				inSampleSize = Math.round((float) bitmapWidth / (float) reqWidth);
-		}
 		return inSampleSize;
 	}
 
@@ -1,7 +1,9 @@
 package com.anddev.utils;
 
 import android.Manifest.permission;
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 
@@ -43,6 +45,42 @@ public class NetworkUtils
 		return activeNetworkInfo != null && activeNetworkInfo.isConnectedOrConnecting();
 	}
 
+	/**
+	 * Checks if active connection is metered, so big downloads should be avoided. Before Jelly Bean every connection other than Wi-Fi and
+	 * Ethernet is treated as metered.
+	 * <p>
+	 * Requires {@link permission#ACCESS_NETWORK_STATE}.
+	 * </p>
+	 * 
+	 * @param context
+	 *            Context
+	 * @return {@code true} if active connection is metered; {@code false} otherwise or if there is no connection.
+	 */
+	@TargetApi(16)
+	public static boolean isMetered(Context context)
+	{
+		final ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		final NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
+		if (activeNetworkInfo == null || !activeNetworkInfo.isConnectedOrConnecting())
+			return false;
+
+		if (APIUtils.SUPPORTS_JELLYBEAN)
+			return connectivityManager.isActiveNetworkMetered();
+
+		final int type = activeNetworkInfo.getType();
+		return type != ConnectivityManager.TYPE_WIFI && type != ConnectivityManager.TYPE_ETHERNET;
+	}
+
+	/**
+	 * @param context
+	 *            Context
+	 * @return {@code true} if app has {@link permission#ACCESS_NETWORK_STATE}, which other methods of this class need.
+	 */
+	public static boolean canAccessNetworkState(Context context)
+	{
+		return context.checkCallingOrSelfPermission(permission.ACCESS_NETWORK_STATE) == PackageManager.PERMISSION_GRANTED;
+	}
+
 	/**
 	 * Workaround for bug pre-Froyo, see here for more info: http://android-developers.blogspot.com/2011/09/androids-http-clients.html
 	 */
@@ -12,18 +12,21 @@ import android.text.style.TypefaceSpan;
 
 public class StringUtils
 {
+	private static final char[]	HEX_DIGITS	= "0123456789abcdef".toCharArray();
+
 	public static String md5(String md5)
 	{
 		try
 		{
 			java.security.MessageDigest md = java.security.MessageDigest.getInstance("MD5");
 			byte[] array = md.digest(md5.getBytes());
-			StringBuffer sb = new StringBuffer();
+			char[] hex = new char[array.length * 2];
 			for (int i = 0; i < array.length; ++i)
 			{
-				sb.append(Integer.toHexString((array[i] & 0xFF) | 0x100).substring(1, 3));
+				hex[i * 2] = HEX_DIGITS[(array[i] >> 4) & 0x0F];
+				hex[i * 2 + 1] = HEX_DIGITS[array[i] & 0x0F];
 			}
-			return sb.toString();
+			return new String(hex);
 		}
 		catch (java.security.NoSuchAlgorithmException e)
 		{
@@ -59,6 +59,25 @@ public class LoaderImageView extends ImageView
 		}
 	}
 
+	@Override
+	protected void onAttachedToWindow()
+	{
+		super.onAttachedToWindow();
+
+		// Bitmap could be evicted and reused while view was detached
+		if (imageLoader != null && !imageLoader.restoreView(this) && params != null && bitmapInfo != null)
+			imageLoader.loadImage(this, bitmapInfo, params);
+	}
+
+	@Override
+	protected void onDetachedFromWindow()
+	{
+		super.onDetachedFromWindow();
+
+		if (imageLoader != null)
+			imageLoader.releaseView(this);
+	}
+
 	// Public methods
 	// --------------------------------------------------------------------------------------------------------------------------------
 
@@ -89,6 +108,9 @@ public class LoaderImageView extends ImageView
 		{
 			params.useFileCache = paramsToCopy.useFileCache;
 			params.useMemoryCache = paramsToCopy.useMemoryCache;
+			params.useProcessedFileCache = paramsToCopy.useProcessedFileCache;
+			params.bitmapConfig = paramsToCopy.bitmapConfig;
+			params.showPreview = paramsToCopy.showPreview;
 			params.setImagesAutomatically = paramsToCopy.setImagesAutomatically;
 			params.placeholder = paramsToCopy.placeholder;
 			params.listener = paramsToCopy.listener;